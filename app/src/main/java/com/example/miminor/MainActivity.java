@@ -28,9 +28,13 @@ import com.example.miminor.dialogs.ColorInfoDialog;
 import com.example.miminor.segmentation.BaseSegmenter;
 import com.example.miminor.segmentation.SlicSegmenter;
 import com.example.miminor.segmentation.ContourSegmenter;
+import com.example.miminor.segmentation.FeaturePrefetcher;
+import com.example.miminor.segmentation.ImageFeatureStore;
 import com.example.miminor.segmentation.ImageSegment;
 import com.example.miminor.segmentation.SegmentationResult;
+import com.example.miminor.utils.ColorBlindnessSimulator;
 import com.example.miminor.utils.ColorInfo;
+import com.example.miminor.utils.ColorNameTable;
 import com.example.miminor.utils.PreferencesHelper;
 import com.example.miminor.views.SegmentOverlayView;
 import com.google.android.material.button.MaterialButton;
@@ -41,6 +45,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
@@ -56,6 +61,10 @@ public class MainActivity extends AppCompatActivity {
     private FloatingActionButton fabSettings;
 
     private BaseSegmenter segmenter;
+    /** Признаки текущего фото, общие для сегментаторов обоих режимов */
+    private final ImageFeatureStore featureStore = new ImageFeatureStore();
+    /** Строит признаки загруженного фото до первого клика */
+    private final FeaturePrefetcher prefetcher = new FeaturePrefetcher();
     private ExecutorService executorService;
 
     private Bitmap currentBitmap;
@@ -101,14 +110,27 @@ public class MainActivity extends AppCompatActivity {
         PreferencesHelper prefs = new PreferencesHelper(this);
         segmenter = createSegmenter(prefs.getSegmentationMode());
         executorService = Executors.newSingleThreadExecutor();
+        ColorBlindnessSimulator.setLutCacheDir(getCacheDir());
+        loadColorNameTable();
+    }
+
+    /**
+     * Maps the quantized color-name table shipped in assets off the UI and analysis
+     * threads, once per process. Names needed before it is mapped use the exact lookup.
+     */
+    private void loadColorNameTable() {
+        ColorNameTable.installAsync(this);
     }
 
     private BaseSegmenter createSegmenter(PreferencesHelper.SegmentationMode mode) {
+        BaseSegmenter created;
         if (mode == PreferencesHelper.SegmentationMode.STREAMING) {
-            return new SlicSegmenter();
+            created = new SlicSegmenter();
         } else {
-            return new ContourSegmenter();
+            created = new ContourSegmenter();
         }
+        created.setFeatureStore(featureStore);
+        return created;
     }
 
     private void setupActivityResultLaunchers() {
@@ -267,6 +289,7 @@ public class MainActivity extends AppCompatActivity {
 
                 runOnUiThread(() -> {
                     displayImage(finalBitmap);
+                    prefetcher.start(finalBitmap, segmenter);
                     statusText.setText("Нажмите на объект для выделения");
                     statusText.setVisibility(View.VISIBLE);
                     hintText.setVisibility(View.VISIBLE);
@@ -356,12 +379,18 @@ public class MainActivity extends AppCompatActivity {
         PreferencesHelper prefs = new PreferencesHelper(this);
         int sensitivity = prefs.getSensitivity();
 
-        executorService.execute(() -> {
+        Runnable task = () -> {
             Log.d(TAG, "Analyzing color at: " + x + ", " + y);
             long start = System.currentTimeMillis();
             
-            int targetColor = currentBitmap.getPixel(x, y);
-            ImageSegment segment = segmenter.segmentByColor(currentBitmap, targetColor, x, y, sensitivity);
+            int targetColor;
+            ImageSegment segment;
+            try {
+                targetColor = currentBitmap.getPixel(x, y);
+                segment = segmenter.segmentByColor(currentBitmap, targetColor, x, y, sensitivity);
+            } finally {
+                prefetcher.tapFinished();
+            }
             long time = System.currentTimeMillis() - start;
 
             runOnUiThread(() -> {
@@ -376,16 +405,23 @@ public class MainActivity extends AppCompatActivity {
                     statusText.setVisibility(View.VISIBLE);
 
 
-                    String colorName = com.example.miminor.utils.ColorNameMapper.getColorName(targetColor);
-                    com.example.miminor.utils.ColorInfo newTargetColor =
-                            new com.example.miminor.utils.ColorInfo(targetColor, colorName);
+                    ColorInfo newTargetColor = ColorInfo.of(targetColor);
 
                     showColorInfo(segment, newTargetColor);
                 } else {
                     Toast.makeText(this, "Не удалось выделить объект", Toast.LENGTH_SHORT).show();
                 }
             });
-        });
+        };
+
+        prefetcher.tapStarted();
+        try {
+            executorService.execute(task);
+        } catch (RejectedExecutionException e) {
+            // Активность уничтожается, клик не будет выполнен
+            prefetcher.tapFinished();
+            showProgress(false);
+        }
     }
 
 
@@ -414,6 +450,9 @@ public class MainActivity extends AppCompatActivity {
         BaseSegmenter newSegmenter = createSegmenter(prefs.getSegmentationMode());
         if (segmenter == null || !segmenter.getClass().equals(newSegmenter.getClass())) {
             segmenter = newSegmenter;
+            if (currentBitmap != null) {
+                prefetcher.start(currentBitmap, segmenter);
+            }
         }
     }
 
@@ -423,6 +462,8 @@ public class MainActivity extends AppCompatActivity {
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdown();
         }
+        prefetcher.shutdown();
+        featureStore.release();
         if (currentBitmap != null && !currentBitmap.isRecycled()) {
             currentBitmap.recycle();
             currentBitmap = null;
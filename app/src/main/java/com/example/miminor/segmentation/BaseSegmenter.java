@@ -2,15 +2,17 @@ package com.example.miminor.segmentation;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
-import android.graphics.Point;
 import android.util.Log;
 
-import org.opencv.android.Utils;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
 
 /**
  * Base class for image segmentation algorithms
@@ -18,8 +20,25 @@ import java.util.List;
 public abstract class BaseSegmenter {
     protected static final String TAG = "BaseSegmenter";
 
+    /** Общий пул для параллельных стадий сегментаторов, отдельный от общего пула процесса */
+    protected static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    /** Регион иерархии меньше этого числа пикселей заменяется выделением самого сегментатора */
+    private static final int MIN_HIERARCHY_AREA = 50;
+
+    /** Признаки текущего изображения; может быть общим для нескольких сегментаторов */
+    private ImageFeatureStore featureStore = new ImageFeatureStore();
+
     /**
-     * Сегментация объекта по цвету в точке клика
+     * Сегментация объекта по цвету в точке клика.
+     * Регион — срез иерархии слияния изображения при пороге, заданном чувствительностью;
+     * иерархия и остальные признаки берутся из хранилища и строятся при первом клике
+     * (или заранее, {@link #prepareColorHierarchy}), поэтому повторные клики и смена
+     * чувствительности не требуют повторной обработки.
+     *
+     * Путь одинаков для всех режимов: собственный алгоритм сегментатора
+     * ({@link #extractRegionByColor}) вызывается, только если срез меньше
+     * MIN_HIERARCHY_AREA пикселей.
      */
     public ImageSegment segmentByColor(Bitmap originalBitmap, int targetColor, int x, int y, int sensitivity) {
         long startTime = System.currentTimeMillis();
@@ -28,17 +47,35 @@ public abstract class BaseSegmenter {
         int originalWidth = originalBitmap.getWidth();
         int originalHeight = originalBitmap.getHeight();
 
-        Mat img = resizeImage(originalBitmap, getProcessingSize());
-
-        float scaleX = (float) originalWidth / img.cols();
-        float scaleY = (float) originalHeight / img.rows();
-
-        int scaledX = (int) (x / scaleX);
-        int scaledY = (int) (y / scaleY);
+        float scaleX;
+        float scaleY;
+        RegionData region;
+        // Признаки хранилища действительны до конца блока
+        ImageFeatureStore features = featureStore;
+        synchronized (features) {
+            features.bind(originalBitmap);
+            Mat img = features.rgb(getProcessingSize());
+            ColorHierarchy hierarchy = features.colorHierarchy(getProcessingSize());
+
+            scaleX = (float) originalWidth / img.cols();
+            scaleY = (float) originalHeight / img.rows();
+
+            int scaledX = (int) (x / scaleX);
+            int scaledY = (int) (y / scaleY);
+
+            region = hierarchy.cut(scaledX, scaledY, ColorHierarchy.alphaForSensitivity(sensitivity));
+            if (region == null || region.area < MIN_HIERARCHY_AREA) {
+                region = extractRegionByColor(img, targetColor, scaledX, scaledY, sensitivity);
+            } else if (usesContours()) {
+                region.contour = maskContour(region);
+            }
 
-        RegionData region = extractRegionByColor(img, targetColor, scaledX, scaledY, sensitivity);
-        
-        img.release();
+            if (region != null) {
+                List<RegionData> single = new ArrayList<>();
+                single.add(region);
+                assignDominantColors(features.colorPlanes(getProcessingSize()), single);
+            }
+        }
 
         if (region == null) {
             return null;
@@ -51,22 +88,14 @@ public abstract class BaseSegmenter {
             (int) ((region.bounds.y + region.bounds.height) * scaleY)
         );
 
-        int centerX = bounds.centerX();
-        int centerY = bounds.centerY();
-        int color = originalBitmap.getPixel(centerX, centerY);
-        String colorName = com.example.miminor.utils.ColorNameMapper.getColorName(color);
         com.example.miminor.utils.ColorInfo colorInfo =
-            new com.example.miminor.utils.ColorInfo(color, colorName);
+            com.example.miminor.utils.ColorInfo.of(regionColor(region, bounds, originalBitmap));
 
-        List<Point> contourPoints = new ArrayList<>();
-        if (usesContours() && region.contourPoints != null) {
-            for (org.opencv.core.Point p : region.contourPoints) {
-                contourPoints.add(new Point((int) (p.x * scaleX), (int) (p.y * scaleY)));
-            }
+        ImageSegment segment = new ImageSegment(0, bounds, segmentMask(region, scaleX, scaleY), colorInfo, 1.0f);
+        if (usesContours() && region.contour != null) {
+            segment.setContour(region.contour.scaled(scaleX, scaleY));
         }
-
-        ImageSegment segment = new ImageSegment(0, bounds, null, colorInfo, 1.0f);
-        segment.setContourPoints(contourPoints);
+        segment.setSecondaryColors(secondaryColors(region));
 
         long elapsed = System.currentTimeMillis() - startTime;
         Log.d(TAG, "Segmentation completed in " + elapsed + "ms");
@@ -74,6 +103,65 @@ public abstract class BaseSegmenter {
         return segment;
     }
 
+    /**
+     * Готовит уменьшенное изображение и иерархию слияния для кликов по bitmap — все, что
+     * нужно клику, кроме запасного пути для регионов меньше MIN_HIERARCHY_AREA.
+     * Ничего не делает, если они уже построены для этого bitmap и его содержимое не менялось.
+     * Вызывается предвыборкой ({@link FeaturePrefetcher}).
+     * @param cancelled опрашивается во время построения иерархии; клик, ждущий хранилище,
+     *                  должен сделать его true
+     * @throws java.util.concurrent.CancellationException если построение прервано
+     */
+    public void prepareColorHierarchy(Bitmap bitmap, BooleanSupplier cancelled) {
+        ImageFeatureStore features = featureStore;
+        synchronized (features) {
+            features.bind(bitmap);
+            features.colorHierarchy(getProcessingSize(), cancelled);
+        }
+    }
+
+    /**
+     * Хранилище признаков изображения. Подклассы обращаются к нему из extractRegions и
+     * extractRegionByColor: хранилище уже привязано к изображению и заблокировано.
+     */
+    public ImageFeatureStore getFeatureStore() {
+        return featureStore;
+    }
+
+    /**
+     * Делит хранилище признаков с другими сегментаторами того же изображения
+     */
+    public void setFeatureStore(ImageFeatureStore featureStore) {
+        this.featureStore = featureStore;
+    }
+
+    /**
+     * Внешний контур маски региона в координатах изображения
+     */
+    private static PackedContour maskContour(RegionData region) {
+        Mat mask = new Mat(region.bounds.height, region.bounds.width, CvType.CV_8UC1);
+        mask.put(0, 0, region.mask);
+
+        List<MatOfPoint> contours = new ArrayList<>();
+        Mat hierarchy = new Mat();
+        Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE,
+                new org.opencv.core.Point(region.bounds.x, region.bounds.y));
+        hierarchy.release();
+        mask.release();
+
+        PackedContour largest = PackedContour.EMPTY;
+        double largestArea = -1;
+        for (MatOfPoint contour : contours) {
+            double area = Imgproc.contourArea(contour);
+            if (area > largestArea) {
+                largestArea = area;
+                largest = PackedContour.fromMat(contour);
+            }
+            contour.release();
+        }
+        return largest;
+    }
+
     /**
      * Analyze image and extract segments
      */
@@ -85,16 +173,21 @@ public abstract class BaseSegmenter {
         int originalWidth = originalBitmap.getWidth();
         int originalHeight = originalBitmap.getHeight();
 
-        Mat img = resizeImage(originalBitmap, getProcessingSize());
+        List<ImageSegment> segments;
+        ImageFeatureStore features = featureStore;
+        synchronized (features) {
+            features.bind(originalBitmap);
+            Mat img = features.rgb(getProcessingSize());
 
-        float scaleX = (float) originalWidth / img.cols();
-        float scaleY = (float) originalHeight / img.rows();
+            float scaleX = (float) originalWidth / img.cols();
+            float scaleY = (float) originalHeight / img.rows();
 
-        List<RegionData> regions = extractRegions(img);
+            List<RegionData> regions = extractRegions(img);
 
-        List<ImageSegment> segments = convertToSegments(regions, originalBitmap, scaleX, scaleY);
+            assignDominantColors(features.colorPlanes(getProcessingSize()), regions);
 
-        img.release();
+            segments = convertToSegments(regions, originalBitmap, scaleX, scaleY);
+        }
 
         long elapsed = System.currentTimeMillis() - startTime;
         Log.d(TAG, "Analysis completed in " + elapsed + "ms, found " + segments.size() + " regions");
@@ -103,7 +196,8 @@ public abstract class BaseSegmenter {
     }
 
     /**
-     * Extract single region by color at specific point
+     * Extract single region by color at specific point.
+     * Fallback of {@link #segmentByColor} for hierarchy cuts under MIN_HIERARCHY_AREA pixels
      */
     protected abstract RegionData extractRegionByColor(Mat img, int targetColor, int x, int y, int sensitivity);
 
@@ -129,32 +223,6 @@ public abstract class BaseSegmenter {
      */
     protected abstract boolean usesContours();
 
-    /**
-     * Resize image to processing size
-     */
-    protected Mat resizeImage(Bitmap bitmap, int maxSize) {
-        int width = bitmap.getWidth();
-        int height = bitmap.getHeight();
-
-        Bitmap resized = bitmap;
-        if (Math.max(width, height) > maxSize) {
-            float scale = (float) maxSize / Math.max(width, height);
-            int newWidth = (int) (width * scale);
-            int newHeight = (int) (height * scale);
-            resized = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, false);
-        }
-
-        Mat mat = new Mat();
-        Utils.bitmapToMat(resized, mat);
-        Imgproc.cvtColor(mat, mat, Imgproc.COLOR_RGBA2RGB);
-
-        if (resized != bitmap) {
-            resized.recycle();
-        }
-
-        return mat;
-    }
-
     /**
      * Convert OpenCV regions to ImageSegments with original image coordinates
      */
@@ -172,47 +240,102 @@ public abstract class BaseSegmenter {
                 (int) ((region.bounds.y + region.bounds.height) * scaleY)
             );
 
-            int centerX = bounds.centerX();
-            int centerY = bounds.centerY();
-            int color = originalBitmap.getPixel(centerX, centerY);
-            String colorName = com.example.miminor.utils.ColorNameMapper.getColorName(color);
             com.example.miminor.utils.ColorInfo colorInfo =
-                new com.example.miminor.utils.ColorInfo(color, colorName);
+                com.example.miminor.utils.ColorInfo.of(regionColor(region, bounds, originalBitmap));
 
-            List<Point> contourPoints = new ArrayList<>();
-            if (usesContours() && region.contourPoints != null) {
-                for (org.opencv.core.Point p : region.contourPoints) {
-                    contourPoints.add(new Point((int) (p.x * scaleX), (int) (p.y * scaleY)));
-                }
+            ImageSegment segment = new ImageSegment(id++, bounds, segmentMask(region, scaleX, scaleY), colorInfo, 1.0f);
+            if (usesContours() && region.contour != null) {
+                segment.setContour(region.contour.scaled(scaleX, scaleY));
             }
-
-            ImageSegment segment = new ImageSegment(id++, bounds, null, colorInfo, 1.0f);
-            segment.setContourPoints(contourPoints);
+            segment.setSecondaryColors(secondaryColors(region));
             segments.add(segment);
         }
 
         return segments;
     }
 
+    /**
+     * Точная форма региона для сегмента: маска, если есть, иначе заливка контура.
+     * В режиме рамок сегмент — его рамка, маска не нужна.
+     */
+    private SegmentMask segmentMask(RegionData region, float scaleX, float scaleY) {
+        if (!usesContours()) {
+            return null;
+        }
+        if (region.mask != null) {
+            return SegmentMask.fromBytes(region.bounds, region.mask, scaleX, scaleY);
+        }
+        if (region.contour != null && region.contour.size() >= 3) {
+            return SegmentMask.fromContour(region.contour, scaleX, scaleY);
+        }
+        return null;
+    }
+
+    /**
+     * Replace bounding-box mean colors with mask-accurate dominant colors.
+     * Each region is measured over its own shape, including pixels covered by other regions.
+     * @param planes color planes of the processed image from the feature store
+     */
+    protected void assignDominantColors(DominantColorExtractor.ColorPlanes planes, List<RegionData> regions) {
+        if (regions.isEmpty()) {
+            return;
+        }
+
+        DominantColorExtractor.RegionColors[] colors = DominantColorExtractor.extract(planes, regions);
+
+        for (int i = 0; i < regions.size(); i++) {
+            DominantColorExtractor.RegionColors regionColors = colors[i];
+            if (regionColors == null) {
+                continue;
+            }
+            RegionData region = regions.get(i);
+            int dominant = regionColors.getDominant();
+            region.color = new int[]{Color.red(dominant), Color.green(dominant), Color.blue(dominant)};
+            region.secondaryColors = new int[regionColors.colors.length - 1];
+            System.arraycopy(regionColors.colors, 1, region.secondaryColors, 0, region.secondaryColors.length);
+        }
+    }
+
+    private int regionColor(RegionData region, android.graphics.Rect bounds, Bitmap originalBitmap) {
+        if (region.color != null) {
+            return Color.rgb(region.color[0], region.color[1], region.color[2]);
+        }
+        return originalBitmap.getPixel(bounds.centerX(), bounds.centerY());
+    }
+
+    private List<com.example.miminor.utils.ColorInfo> secondaryColors(RegionData region) {
+        List<com.example.miminor.utils.ColorInfo> result = new ArrayList<>();
+        if (region.secondaryColors != null) {
+            for (int color : region.secondaryColors) {
+                result.add(com.example.miminor.utils.ColorInfo.of(color));
+            }
+        }
+        return result;
+    }
+
     /**
      * Region data extracted from image
      */
     protected static class RegionData {
         public org.opencv.core.Rect bounds;
-        public List<org.opencv.core.Point> contourPoints;
+        public PackedContour contour;
         public int area;
         public int[] color;
+        /** ARGB colors after the dominant one, by decreasing share */
+        public int[] secondaryColors;
+        /** Optional exact mask, bounds.width * bounds.height, row-major, non-zero inside */
+        public byte[] mask;
 
         public RegionData(org.opencv.core.Rect bounds, int area) {
             this.bounds = bounds;
             this.area = area;
-            this.contourPoints = new ArrayList<>();
+            this.contour = PackedContour.EMPTY;
         }
 
-        public RegionData(org.opencv.core.Rect bounds, int area, List<org.opencv.core.Point> contourPoints) {
+        public RegionData(org.opencv.core.Rect bounds, int area, PackedContour contour) {
             this.bounds = bounds;
             this.area = area;
-            this.contourPoints = contourPoints;
+            this.contour = contour;
         }
     }
 }
@@ -9,17 +9,37 @@ import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Box-based segmentation with Phase 1 optimizations:
  * - Processing at 0.75x resolution for better speed/quality balance
  * - Optimized color quantization in HSV space
  * - Phase 2 will migrate to OKLAB for 8x better perceptual accuracy
+ *
+ * Not selected by any mode: MainActivity and DualModeSegmentationEngine create
+ * SlicSegmenter (streaming) and ContourSegmenter (precision). The single-pass labeling,
+ * parallel color classes and RegionIndex-based merge/NMS here only take effect when
+ * this class is instantiated directly.
  */
 public class BoxSegmenter extends BaseSegmenter {
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /** Классы пикселей вне диапазона тона H (0..179) */
+    private static final int CLASS_DARK = 254;
+    private static final int CLASS_GRAY = 253;
+
+    /** Сглаживание перед квантованием цвета: pyrMeanShiftFiltering(8, 16) и размытие 3x3 */
+    private static final ImageFeatureStore.MeanShift MEAN_SHIFT = new ImageFeatureStore.MeanShift(8, 16, 1, 3);
 
     @Override
     protected String getAlgorithmName() {
@@ -36,161 +56,127 @@ public class BoxSegmenter extends BaseSegmenter {
         return 400;
     }
 
-    // ---------- geometry helpers ----------
+    // ---------- candidate filtering ----------
 
-    private boolean isRectInside(org.opencv.core.Rect inner, org.opencv.core.Rect outer, double tol) {
-        return inner.x >= outer.x + tol &&
-                inner.y >= outer.y + tol &&
-                inner.x + inner.width <= outer.x + outer.width - tol &&
-                inner.y + inner.height <= outer.y + outer.height - tol;
-    }
+    /**
+     * Отбор кандидатов по иерархии в порядке списка: кандидат, почти совпадающий с уже
+     * принятым, отбрасывается; принятые регионы, лежащие внутри нового и намного меньше
+     * его, убираются. Проверки идут через RegionIndex, а не по всему списку
+     */
+    private List<ColorRegion> filterHierarchy(List<ColorRegion> candidates) {
+        int n = candidates.size();
+        List<org.opencv.core.Rect> bounds = new ArrayList<>(n);
+        for (ColorRegion candidate : candidates) {
+            bounds.add(candidate.bounds);
+        }
+        RegionIndex index = new RegionIndex(RegionIndex.extent(bounds), RegionIndex.meanSide(bounds));
+        int[] inside = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            ColorRegion newRegion = candidates.get(i);
+            // 1. если новый почти совпадает с существующим — игнорируем
+            if (index.anyWithIoUAbove(newRegion.bounds, 0.9)) {
+                continue;
+            }
 
-    private double rectIoU(org.opencv.core.Rect r1, org.opencv.core.Rect r2) {
-        int x1 = Math.max(r1.x, r2.x);
-        int y1 = Math.max(r1.y, r2.y);
-        int x2 = Math.min(r1.x + r1.width, r2.x + r2.width);
-        int y2 = Math.min(r1.y + r1.height, r2.y + r2.height);
-
-        int interW = Math.max(0, x2 - x1);
-        int interH = Math.max(0, y2 - y1);
-        double interArea = interW * interH;
-
-        double area1 = r1.width * r1.height;
-        double area2 = r2.width * r2.height;
-        double unionArea = area1 + area2 - interArea;
-        if (unionArea <= 0) return 0.0;
-        return interArea / unionArea;
-    }
+            // 2. если существующий полностью внутри нового и намного меньше -- убираем существующий
+            int found = index.containedIn(newRegion.bounds, 1.0, inside);
+            for (int k = 0; k < found; k++) {
+                if (candidates.get(inside[k]).area < newRegion.area * 0.7) {
+                    index.remove(inside[k]);
+                }
+            }
 
-    private boolean isRectAlmostSame(org.opencv.core.Rect r1, org.opencv.core.Rect r2, double iouThresh) {
-        double iou = rectIoU(r1, r2);
-        return iou > iouThresh;
-    }
+            index.insert(i, newRegion.bounds);
+        }
 
-    private void addRegionWithHierarchyFilter(List<ColorRegion> colorRegions, ColorRegion newRegion) {
-        // 1. если новый почти совпадает с существующим — игнорируем
-        for (ColorRegion existing : colorRegions) {
-            if (isRectAlmostSame(newRegion.bounds, existing.bounds, 0.9)) {
-                return;
+        List<ColorRegion> accepted = new ArrayList<>(index.size());
+        for (int i = 0; i < n; i++) {
+            if (index.contains(i)) {
+                accepted.add(candidates.get(i));
             }
         }
-
-        // 2. если существующий полностью внутри нового и намного меньше -- убираем существующий
-        colorRegions.removeIf(existing ->
-                isRectInside(existing.bounds, newRegion.bounds, 1.0) &&
-                        existing.area < newRegion.area * 0.7
-        );
-
-        colorRegions.add(newRegion);
+        return accepted;
     }
 
     // ---------- main segmentation ----------
 
     @Override
     protected RegionData extractRegionByColor(Mat img, int targetColor, int x, int y, int sensitivity) {
-        return BoxSegmenterColor.extractByColor(img, targetColor, x, y, sensitivity);
+        return BoxSegmenterColor.extractByColor(getFeatureStore(), getProcessingSize(), targetColor, x, y, sensitivity);
     }
 
     @Override
     protected List<RegionData> extractRegions(Mat img) {
-        Mat segmented = new Mat();
-        Imgproc.pyrMeanShiftFiltering(img, segmented, 8, 16);
-        Imgproc.GaussianBlur(segmented, segmented, new Size(3, 3), 0);
-
-
-        Mat edges = new Mat();
-        Mat gray = new Mat();
-        Imgproc.cvtColor(segmented, gray, Imgproc.COLOR_RGB2GRAY);
-        Imgproc.Canny(gray, edges, 40, 120);
+        // Сглаженное изображение, границы и HSV принадлежат хранилищу признаков
+        ImageFeatureStore features = getFeatureStore();
+        Mat segmented = features.meanShift(getProcessingSize(), MEAN_SHIFT);
+        Mat edges = features.edges(getProcessingSize(), MEAN_SHIFT, 40, 120);
         Mat dilatedEdges = new Mat();
         Mat edgeKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(1, 1));
         Imgproc.dilate(edges, dilatedEdges, edgeKernel);
         edgeKernel.release();
-        edges.release();
-        gray.release();
 
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(segmented, hsv, Imgproc.COLOR_RGB2HSV);
+        Mat hsv = features.hsv(getProcessingSize(), MEAN_SHIFT);
 
         int imageArea = img.rows() * img.cols();
         int minArea = (int) (imageArea * 0.0015); // чуть мягче
         int maxRegions = 35;
 
-        List<Mat> hsvChannels = new ArrayList<>();
-        Core.split(hsv, hsvChannels);
-        Mat hChannel = hsvChannels.get(0);
-        Mat sChannel = hsvChannels.get(1);
-        Mat vChannel = hsvChannels.get(2);
+        Scalar hsvMean = Core.mean(hsv);
 
-        Scalar vMean = Core.mean(vChannel);
-        Scalar sMean = Core.mean(sChannel);
+        int vThresh = Math.max(20, Math.min((int) (hsvMean.val[2] * 0.32), 55));
+        int sThresh = Math.max(20, Math.min((int) (hsvMean.val[1] * 0.42), 65));
 
-        int vThresh = Math.max(20, Math.min((int) (vMean.val[0] * 0.32), 55));
-        int sThresh = Math.max(20, Math.min((int) (sMean.val[0] * 0.42), 65));
+        int[] classCounts = new int[256];
+        Mat classes = labelPixelClasses(hsv, vThresh, sThresh, classCounts);
 
-        List<ColorRegion> colorRegions = new ArrayList<>();
+        byte[] segmentedData = new byte[(int) segmented.total() * 3];
+        segmented.get(0, 0, segmentedData);
 
-        // dark
-        Mat darkMask = new Mat();
-        Core.compare(vChannel, new Scalar(vThresh), darkMask, Core.CMP_LT);
-        if (Core.countNonZero(darkMask) > minArea) {
-            processColorRegion(darkMask, segmented, dilatedEdges, colorRegions, minArea);
-        }
-        darkMask.release();
-
-        // gray
-        Mat grayMask = new Mat();
-        Mat highV = new Mat();
-        Core.compare(vChannel, new Scalar(vThresh), highV, Core.CMP_GE);
-        Core.compare(sChannel, new Scalar(sThresh), grayMask, Core.CMP_LT);
-        Core.bitwise_and(highV, grayMask, grayMask);
-        highV.release();
-
-        if (Core.countNonZero(grayMask) > minArea) {
-            processColorRegion(grayMask, segmented, dilatedEdges, colorRegions, minArea);
-        }
-        grayMask.release();
-
-        // colored
-        Mat coloredMask = new Mat();
-        Mat highS = new Mat();
-        Mat highV2 = new Mat();
-        Core.compare(sChannel, new Scalar(sThresh), highS, Core.CMP_GE);
-        Core.compare(vChannel, new Scalar(vThresh), highV2, Core.CMP_GE);
-        Core.bitwise_and(highS, highV2, coloredMask);
-        highS.release();
-        highV2.release();
+        Mat notEdges = new Mat();
+        Core.bitwise_not(dilatedEdges, notEdges);
+        dilatedEdges.release();
 
+        // dark, gray, затем 24 диапазона тона; границы включительные, как в inRange
         int hueRanges = 24;
         int hueStep = 180 / hueRanges;
-
+        List<int[]> classRanges = new ArrayList<>();
+        classRanges.add(new int[]{CLASS_DARK, CLASS_DARK});
+        classRanges.add(new int[]{CLASS_GRAY, CLASS_GRAY});
         for (int i = 0; i < hueRanges; i++) {
-            Mat hueMask = new Mat();
-            int hMin = i * hueStep;
-            int hMax = (i + 1) * hueStep;
-
-            Core.inRange(hChannel, new Scalar(hMin), new Scalar(hMax), hueMask);
-            Core.bitwise_and(hueMask, coloredMask, hueMask);
+            classRanges.add(new int[]{i * hueStep, (i + 1) * hueStep});
+        }
 
-            if (Core.countNonZero(hueMask) > minArea) {
-                processColorRegion(hueMask, segmented, dilatedEdges, colorRegions, minArea);
+        // Классы с числом пикселей не больше minArea отсекаются по гистограмме
+        List<ForkJoinTask<List<ColorRegion>>> tasks = new ArrayList<>();
+        for (int[] range : classRanges) {
+            int count = 0;
+            for (int c = range[0]; c <= range[1]; c++) {
+                count += classCounts[c];
+            }
+            if (count > minArea) {
+                tasks.add(POOL.submit(() -> processClass(classes, range[0], range[1],
+                        segmented, segmentedData, notEdges, minArea)));
             }
-            hueMask.release();
         }
 
-        coloredMask.release();
-        hChannel.release();
-        sChannel.release();
-        vChannel.release();
-        hsv.release();
-        dilatedEdges.release();
-        segmented.release();
+        // Сведение в порядке классов: фильтр иерархии зависит от порядка добавления
+        List<ColorRegion> candidates = new ArrayList<>();
+        for (ForkJoinTask<List<ColorRegion>> task : tasks) {
+            candidates.addAll(task.join());
+        }
+        List<ColorRegion> colorRegions = filterHierarchy(candidates);
+
+        classes.release();
+        notEdges.release();
 
         mergeNearbyRegions(colorRegions);
 
         List<RegionData> regions = new ArrayList<>();
         for (ColorRegion cr : colorRegions) {
-            RegionData rd = new RegionData(cr.bounds, cr.area);
+            // Контур нужен только для маски доминантного цвета; для склеенных регионов — контур первого
+            RegionData rd = new RegionData(cr.bounds, cr.area, cr.contour);
             rd.color = cr.color;
             regions.add(rd);
         }
@@ -210,96 +196,137 @@ public class BoxSegmenter extends BaseSegmenter {
     }
 
     /**
-     * Process a single color mask and extract regions with watershed separation
+     * Одним проходом присваивает каждому пикселю класс: CLASS_DARK, CLASS_GRAY или тон H
+     * (0..179) для цветных пикселей, и считает пиксели каждого класса.
+     * Тон хранится целиком, а не номером корзины, потому что соседние корзины делят
+     * граничное значение H.
+     */
+    private Mat labelPixelClasses(Mat hsv, int vThresh, int sThresh, int[] classCounts) {
+        int pixels = (int) hsv.total();
+        byte[] hsvData = new byte[pixels * 3];
+        hsv.get(0, 0, hsvData);
+
+        byte[] classData = new byte[pixels];
+        for (int i = 0, j = 0; i < pixels; i++, j += 3) {
+            int s = hsvData[j + 1] & 0xFF;
+            int v = hsvData[j + 2] & 0xFF;
+
+            int cls;
+            if (v < vThresh) {
+                cls = CLASS_DARK;
+            } else if (s < sThresh) {
+                cls = CLASS_GRAY;
+            } else {
+                cls = hsvData[j] & 0xFF;
+            }
+            classData[i] = (byte) cls;
+            classCounts[cls]++;
+        }
+
+        Mat classes = new Mat(hsv.rows(), hsv.cols(), CvType.CV_8UC1);
+        classes.put(0, 0, classData);
+        return classes;
+    }
+
+    /**
+     * Строит маску классов [lo, hi] и возвращает регионы-кандидаты в порядке обнаружения.
+     * Выполняется в рабочем потоке пула на его собственных временных Mat.
      */
-    private void processColorRegion(Mat mask, Mat img, Mat edges, List<ColorRegion> colorRegions, int minArea) {
-        Mat cleanMask = new Mat();
-        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
-        Imgproc.morphologyEx(mask, cleanMask, Imgproc.MORPH_OPEN, kernel);
-        Imgproc.morphologyEx(cleanMask, cleanMask, Imgproc.MORPH_CLOSE, kernel);
-
-        Mat edgeMask = new Mat();
-        Core.bitwise_not(edges, edgeMask);
-        Core.bitwise_and(cleanMask, edgeMask, cleanMask);
-        edgeMask.release();
-
-        Mat dist = new Mat();
+    private List<ColorRegion> processClass(Mat classes, int lo, int hi, Mat img, byte[] imgData,
+                                           Mat notEdges, int minArea) {
+        Scratch scratch = SCRATCH.get();
+        Core.inRange(classes, new Scalar(lo), new Scalar(hi), scratch.mask);
+
+        List<ColorRegion> candidates = new ArrayList<>();
+        processColorRegion(scratch, img, imgData, notEdges, candidates, minArea);
+        return candidates;
+    }
+
+    /**
+     * Process a single color mask (scratch.mask) and extract regions with watershed separation.
+     * Candidates are appended in discovery order; hierarchy filtering happens in the caller.
+     */
+    private void processColorRegion(Scratch scratch, Mat img, byte[] imgData, Mat notEdges,
+                                    List<ColorRegion> candidates, int minArea) {
+        Mat cleanMask = scratch.cleanMask;
+        Imgproc.morphologyEx(scratch.mask, cleanMask, Imgproc.MORPH_OPEN, scratch.kernel);
+        Imgproc.morphologyEx(cleanMask, cleanMask, Imgproc.MORPH_CLOSE, scratch.kernel);
+        Core.bitwise_and(cleanMask, notEdges, cleanMask);
+
+        Mat dist = scratch.dist;
         Imgproc.distanceTransform(cleanMask, dist, Imgproc.DIST_L2, 3);
         Core.normalize(dist, dist, 0, 1.0, Core.NORM_MINMAX);
 
-        Mat peaks = new Mat();
+        Mat peaks = scratch.peaks;
         Imgproc.threshold(dist, peaks, 0.4, 1.0, Imgproc.THRESH_BINARY);
         peaks.convertTo(peaks, CvType.CV_8U, 255);
 
-        Mat largePeaks = new Mat();
-        Mat kernelLarge = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
-        Imgproc.dilate(peaks, largePeaks, kernelLarge);
-        kernel.release();
-        kernelLarge.release();
+        Mat largePeaks = scratch.largePeaks;
+        Imgproc.dilate(peaks, largePeaks, scratch.kernel);
 
-        Mat labels = new Mat();
-        Mat stats = new Mat();
-        Mat centroids = new Mat();
-        int numLabels = Imgproc.connectedComponentsWithStats(largePeaks, labels, stats, centroids);
+        // Метки CV_32S сразу служат маркерами watershed
+        Mat markers = scratch.markers;
+        int numLabels = Imgproc.connectedComponentsWithStats(largePeaks, markers, scratch.stats, scratch.centroids);
 
         if (numLabels > 1 && numLabels <= 60) {
-            Mat markers = new Mat();
-            labels.convertTo(markers, CvType.CV_32S);
+            img.copyTo(scratch.imgCopy);
+            Imgproc.watershed(scratch.imgCopy, markers);
 
-            Mat imgCopy = new Mat();
-            img.copyTo(imgCopy);
-            Imgproc.watershed(imgCopy, markers);
-            imgCopy.release();
+            int[] markerData = new int[(int) markers.total()];
+            markers.get(0, 0, markerData);
+            LabelStats labelStats = new LabelStats(numLabels);
+            labelStats.accumulate(markerData, imgData, markers.cols());
 
             for (int label = 1; label < numLabels; label++) {
-                Mat labelMask = new Mat();
-                Core.compare(markers, new Scalar(label), labelMask, Core.CMP_EQ);
-
-                int nonZero = Core.countNonZero(labelMask);
-                if (nonZero >= minArea) {
-                    List<MatOfPoint> contours = new ArrayList<>();
-                    Mat hierarchy = new Mat();
-                    Imgproc.findContours(labelMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
-
-                    if (!contours.isEmpty()) {
-                        MatOfPoint largestContour = contours.get(0);
-                        for (MatOfPoint c : contours) {
-                            if (Imgproc.contourArea(c) > Imgproc.contourArea(largestContour)) {
-                                largestContour = c;
-                            }
+                if (labelStats.area[label] < minArea) {
+                    continue;
+                }
+
+                org.opencv.core.Rect labelRect = labelStats.bounds(label);
+                float labelAspect = (float) labelRect.width / labelRect.height;
+                if (labelAspect <= 0.15 || labelAspect >= 7) {
+                    continue;
+                }
+
+                // Контур ищется только внутри рамки метки
+                Mat labelMarkers = markers.submat(labelRect);
+                Core.compare(labelMarkers, new Scalar(label), scratch.labelMask, Core.CMP_EQ);
+                labelMarkers.release();
+
+                List<MatOfPoint> contours = new ArrayList<>();
+                Imgproc.findContours(scratch.labelMask, contours, scratch.hierarchy, Imgproc.RETR_EXTERNAL,
+                        Imgproc.CHAIN_APPROX_SIMPLE, new org.opencv.core.Point(labelRect.x, labelRect.y));
+
+                if (!contours.isEmpty()) {
+                    MatOfPoint largestContour = contours.get(0);
+                    double area = Imgproc.contourArea(largestContour);
+                    for (MatOfPoint c : contours) {
+                        double contourArea = Imgproc.contourArea(c);
+                        if (contourArea > area) {
+                            largestContour = c;
+                            area = contourArea;
                         }
+                    }
 
-                        double area = Imgproc.contourArea(largestContour);
-                        if (area >= minArea) {
-                            org.opencv.core.Rect rect = Imgproc.boundingRect(largestContour);
-                            float aspectRatio = (float) rect.width / rect.height;
-
-                            if (aspectRatio > 0.15 && aspectRatio < 7) {
-                                Mat roi = img.submat(rect);
-                                Scalar meanColor = Core.mean(roi);
-                                roi.release();
-
-                                ColorRegion region = new ColorRegion();
-                                region.bounds = rect;
-                                region.area = (int) area;
-                                region.color = new int[]{
-                                        (int) meanColor.val[0],
-                                        (int) meanColor.val[1],
-                                        (int) meanColor.val[2]
-                                };
-                                addRegionWithHierarchyFilter(colorRegions, region);
-                            }
+                    if (area >= minArea) {
+                        org.opencv.core.Rect rect = Imgproc.boundingRect(largestContour);
+                        float aspectRatio = (float) rect.width / rect.height;
+
+                        if (aspectRatio > 0.15 && aspectRatio < 7) {
+                            ColorRegion region = new ColorRegion();
+                            region.bounds = rect;
+                            region.area = (int) area;
+                            region.contour = PackedContour.fromMat(largestContour);
+                            region.color = labelStats.meanColor(label);
+                            candidates.add(region);
                         }
                     }
-                    hierarchy.release();
                 }
-                labelMask.release();
+                releaseAll(contours);
             }
-            markers.release();
         } else {
             List<MatOfPoint> contours = new ArrayList<>();
-            Mat hierarchy = new Mat();
-            Imgproc.findContours(cleanMask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            Imgproc.findContours(cleanMask, contours, scratch.hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
 
             for (MatOfPoint contour : contours) {
                 double area = Imgproc.contourArea(contour);
@@ -315,71 +342,102 @@ public class BoxSegmenter extends BaseSegmenter {
                         ColorRegion region = new ColorRegion();
                         region.bounds = rect;
                         region.area = (int) area;
+                        region.contour = PackedContour.fromMat(contour);
                         region.color = new int[]{
                                 (int) meanColor.val[0],
                                 (int) meanColor.val[1],
                                 (int) meanColor.val[2]
                         };
-                        addRegionWithHierarchyFilter(colorRegions, region);
+                        candidates.add(region);
                     }
                 }
             }
-            hierarchy.release();
+            releaseAll(contours);
         }
+    }
 
-        labels.release();
-        stats.release();
-        centroids.release();
-        peaks.release();
-        largePeaks.release();
-        dist.release();
-        cleanMask.release();
+    private static void releaseAll(List<MatOfPoint> contours) {
+        for (MatOfPoint contour : contours) {
+            contour.release();
+        }
     }
 
     /**
-     * Merge regions with similar colors that are nearby
+     * Merge regions with similar colors that are nearby.
+     * Пары ищутся только среди пересекающихся рамок через сетку, склейка идет через
+     * union-find за один проход; результат не зависит от порядка регионов.
      */
     private void mergeNearbyRegions(List<ColorRegion> regions) {
-        boolean merged = true;
-        int iterations = 0;
-        int maxIterations = 3;
-
-        while (merged && iterations < maxIterations) {
-            merged = false;
-            iterations++;
-
-            for (int i = 0; i < regions.size() && !merged; i++) {
-                for (int j = i + 1; j < regions.size() && !merged; j++) {
-                    ColorRegion r1 = regions.get(i);
-                    ColorRegion r2 = regions.get(j);
+        int n = regions.size();
+        List<org.opencv.core.Rect> bounds = new ArrayList<>(n);
+        for (ColorRegion region : regions) {
+            bounds.add(region.bounds);
+        }
+        RegionIndex index = RegionIndex.build(bounds);
+        UnionFind sets = new UnionFind(n);
 
-                    double colorDist = colorDistance(r1.color, r2.color);
-                    double spatialDist = regionDistance(r1.bounds, r2.bounds);
-                    double iou = rectIoU(r1.bounds, r2.bounds);
+        int[] candidates = new int[n];
+        for (int i = 0; i < n; i++) {
+            ColorRegion r1 = regions.get(i);
+            int found = index.overlapping(r1.bounds, candidates);
+            for (int k = 0; k < found; k++) {
+                int j = candidates[k];
+                if (j <= i) {
+                    continue;
+                }
+                ColorRegion r2 = regions.get(j);
+                if (shouldMerge(r1, r2)) {
+                    sets.union(i, j);
+                }
+            }
+        }
 
-                    boolean shouldMerge = false;
+        // Площадь-взвешенные суммы цвета по компонентам; порядок — по первому члену
+        int[] componentOf = new int[n];
+        Arrays.fill(componentOf, -1);
+        List<ColorRegion> merged = new ArrayList<>();
+        List<long[]> colorSums = new ArrayList<>();
+        List<Integer> contourAreas = new ArrayList<>();
+
+        for (int i = 0; i < n; i++) {
+            ColorRegion region = regions.get(i);
+            int root = sets.find(i);
+            int component = componentOf[root];
+            if (component < 0) {
+                component = merged.size();
+                componentOf[root] = component;
+                ColorRegion target = new ColorRegion();
+                target.bounds = region.bounds;
+                target.contour = region.contour;
+                merged.add(target);
+                colorSums.add(new long[3]);
+                contourAreas.add(region.area);
+            }
 
-                    if (iou > 0.25 && colorDist < 45 && !(r1.area/r2.area > 3f || r1.area/r2.area < 0.33f)) {
-                        shouldMerge = true;
-                    }
-//                    else if (colorDist < 25 && spatialDist < 10) {
-//                        shouldMerge = true;
-//                    }
-
-                    if (shouldMerge) {
-                        int totalArea = r1.area + r2.area;
-                        r1.bounds = unionRect(r1.bounds, r2.bounds);
-                        for (int k = 0; k < 3; k++) {
-                            r1.color[k] = (r1.color[k] * r1.area + r2.color[k] * r2.area) / totalArea;
-                        }
-                        r1.area = totalArea;
-                        regions.remove(j);
-                        merged = true;
-                    }
-                }
+            ColorRegion target = merged.get(component);
+            target.bounds = unionRect(target.bounds, region.bounds);
+            target.area += region.area;
+            long[] sums = colorSums.get(component);
+            for (int c = 0; c < 3; c++) {
+                sums[c] += (long) region.color[c] * region.area;
+            }
+            // Контур маски — от самого крупного члена, чтобы не зависеть от порядка
+            if (region.area > contourAreas.get(component)) {
+                target.contour = region.contour;
+                contourAreas.set(component, region.area);
             }
         }
 
+        for (int k = 0; k < merged.size(); k++) {
+            ColorRegion target = merged.get(k);
+            long[] sums = colorSums.get(k);
+            int area = Math.max(1, target.area);
+            target.color = new int[]{(int) (sums[0] / area), (int) (sums[1] / area), (int) (sums[2] / area)};
+        }
+
+        regions.clear();
+        regions.addAll(merged);
+
         // удаляем узкие или слишком маленькие боксы
         regions.removeIf(r -> {
             int w = r.bounds.width;
@@ -392,21 +450,43 @@ public class BoxSegmenter extends BaseSegmenter {
         finalNMSFilter(regions, 0.5);
     }
 
+    /**
+     * Склеиваются сильно перекрытые регионы близкого цвета и сопоставимой площади
+     */
+    private boolean shouldMerge(ColorRegion r1, ColorRegion r2) {
+        if (r1.area <= 0 || r2.area <= 0) {
+            return false;
+        }
+        float areaRatio = (float) r1.area / r2.area;
+        return areaRatio <= 3f && areaRatio >= 0.33f
+                && colorDistance(r1.color, r2.color) < 45
+                && RegionIndex.iou(r1.bounds, r2.bounds) > 0.25;
+    }
+
     /**
      * Финальная не максимальная подавляющая фильтрация (аналог NMS как в детекторах объектов)
      */
     private void finalNMSFilter(List<ColorRegion> regions, double iouThreshold) {
         Collections.sort(regions, (a, b) -> Integer.compare(b.area, a.area));
-        boolean[] removed = new boolean[regions.size()];
+        int n = regions.size();
+        List<org.opencv.core.Rect> bounds = new ArrayList<>(n);
+        for (ColorRegion region : regions) {
+            bounds.add(region.bounds);
+        }
+        RegionIndex index = RegionIndex.build(bounds);
+        boolean[] removed = new boolean[n];
+        int[] overlapping = new int[n];
 
-        for (int i = 0; i < regions.size(); i++) {
+        for (int i = 0; i < n; i++) {
             if (removed[i]) continue;
             ColorRegion r1 = regions.get(i);
 
-            for (int j = i + 1; j < regions.size(); j++) {
-                if (removed[j]) continue;
-                ColorRegion r2 = regions.get(j);
-                double iou = rectIoU(r1.bounds, r2.bounds);
+            // подавляются только меньшие (более поздние после сортировки) рамки
+            int found = index.overlapping(r1.bounds, overlapping);
+            for (int k = 0; k < found; k++) {
+                int j = overlapping[k];
+                if (j <= i || removed[j]) continue;
+                double iou = RegionIndex.iou(r1.bounds, regions.get(j).bounds);
                 if (iou > iouThreshold) {
                     removed[j] = true;
                 }
@@ -414,7 +494,7 @@ public class BoxSegmenter extends BaseSegmenter {
         }
 
         List<ColorRegion> filtered = new ArrayList<>();
-        for (int i = 0; i < regions.size(); i++) {
+        for (int i = 0; i < n; i++) {
             if (!removed[i]) filtered.add(regions.get(i));
         }
         regions.clear();
@@ -432,15 +512,6 @@ public class BoxSegmenter extends BaseSegmenter {
         return Math.sqrt(dr * dr + dg * dg + db * db);
     }
 
-    /**
-     * Calculate minimum distance between two rectangles
-     */
-    private double regionDistance(org.opencv.core.Rect r1, org.opencv.core.Rect r2) {
-        int dx = Math.max(0, Math.max(r1.x - (r2.x + r2.width), r2.x - (r1.x + r1.width)));
-        int dy = Math.max(0, Math.max(r1.y - (r2.y + r2.height), r2.y - (r1.y + r1.height)));
-        return Math.sqrt(dx * dx + dy * dy);
-    }
-
     /**
      * Union of two rectangles
      */
@@ -452,6 +523,134 @@ public class BoxSegmenter extends BaseSegmenter {
         return new org.opencv.core.Rect(x, y, right - x, bottom - y);
     }
 
+    /**
+     * Временные Mat одного рабочего потока; переиспользуются между классами и анализами,
+     * OpenCV перевыделяет их только при смене размера
+     */
+    private static class Scratch {
+        final Mat mask = new Mat();
+        final Mat cleanMask = new Mat();
+        final Mat dist = new Mat();
+        final Mat peaks = new Mat();
+        final Mat largePeaks = new Mat();
+        final Mat markers = new Mat();
+        final Mat stats = new Mat();
+        final Mat centroids = new Mat();
+        final Mat imgCopy = new Mat();
+        final Mat labelMask = new Mat();
+        final Mat hierarchy = new Mat();
+        final Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
+    }
+
+    /**
+     * Площадь, рамка и сумма цвета всех меток watershed за один проход
+     */
+    private static class LabelStats {
+        final int[] area;
+        final int[] minX;
+        final int[] minY;
+        final int[] maxX;
+        final int[] maxY;
+        final long[] sumR;
+        final long[] sumG;
+        final long[] sumB;
+
+        LabelStats(int numLabels) {
+            area = new int[numLabels];
+            minX = new int[numLabels];
+            minY = new int[numLabels];
+            maxX = new int[numLabels];
+            maxY = new int[numLabels];
+            sumR = new long[numLabels];
+            sumG = new long[numLabels];
+            sumB = new long[numLabels];
+            Arrays.fill(minX, Integer.MAX_VALUE);
+            Arrays.fill(minY, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @param markers метки watershed (-1 — граница, 0 — фон)
+         * @param rgb     пиксели изображения, 3 байта на пиксель
+         */
+        void accumulate(int[] markers, byte[] rgb, int cols) {
+            int numLabels = area.length;
+            for (int i = 0; i < markers.length; i++) {
+                int label = markers[i];
+                if (label <= 0 || label >= numLabels) {
+                    continue;
+                }
+                int x = i % cols;
+                int y = i / cols;
+
+                area[label]++;
+                if (x < minX[label]) minX[label] = x;
+                if (x > maxX[label]) maxX[label] = x;
+                if (y < minY[label]) minY[label] = y;
+                if (y > maxY[label]) maxY[label] = y;
+
+                int p = i * 3;
+                sumR[label] += rgb[p] & 0xFF;
+                sumG[label] += rgb[p + 1] & 0xFF;
+                sumB[label] += rgb[p + 2] & 0xFF;
+            }
+        }
+
+        org.opencv.core.Rect bounds(int label) {
+            return new org.opencv.core.Rect(minX[label], minY[label],
+                    maxX[label] - minX[label] + 1, maxY[label] - minY[label] + 1);
+        }
+
+        int[] meanColor(int label) {
+            int n = area[label];
+            return new int[]{(int) (sumR[label] / n), (int) (sumG[label] / n), (int) (sumB[label] / n)};
+        }
+    }
+
+    /**
+     * Система непересекающихся множеств со сжатием путей и объединением по рангу
+     */
+    private static class UnionFind {
+        private final int[] parent;
+        private final byte[] rank;
+
+        UnionFind(int n) {
+            parent = new int[n];
+            rank = new byte[n];
+            for (int i = 0; i < n; i++) {
+                parent[i] = i;
+            }
+        }
+
+        int find(int i) {
+            int root = i;
+            while (parent[root] != root) {
+                root = parent[root];
+            }
+            while (parent[i] != root) {
+                int next = parent[i];
+                parent[i] = root;
+                i = next;
+            }
+            return root;
+        }
+
+        void union(int a, int b) {
+            int ra = find(a);
+            int rb = find(b);
+            if (ra == rb) {
+                return;
+            }
+            if (rank[ra] < rank[rb]) {
+                parent[ra] = rb;
+            } else if (rank[ra] > rank[rb]) {
+                parent[rb] = ra;
+            } else {
+                parent[rb] = ra;
+                rank[ra]++;
+            }
+        }
+    }
+
     /**
      * Helper class for color region data
      */
@@ -459,5 +658,6 @@ public class BoxSegmenter extends BaseSegmenter {
         org.opencv.core.Rect bounds;
         int area;
         int[] color;
+        PackedContour contour;
     }
 }
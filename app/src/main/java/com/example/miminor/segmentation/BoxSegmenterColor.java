@@ -17,23 +17,24 @@ import java.util.List;
  * Сегментация по цвету для режима боксов
  */
 public class BoxSegmenterColor {
-
-    public static BaseSegmenter.RegionData extractByColor(Mat img, int targetColor, int clickX, int clickY, int sensitivity) {
+    private static final ImageFeatureStore.MeanShift MEAN_SHIFT = new ImageFeatureStore.MeanShift(8, 16, 0, 3);
+
+    /**
+     * @param features хранилище, привязанное к изображению; сглаженное изображение и HSV
+     *                 берутся из него и считаются только при первом клике
+     */
+    public static BaseSegmenter.RegionData extractByColor(ImageFeatureStore features, int maxSize, int targetColor,
+                                                          int clickX, int clickY, int sensitivity) {
+        Mat img = features.rgb(maxSize);
         if (clickX < 0 || clickY < 0 || clickX >= img.cols() || clickY >= img.rows()) {
             return null;
         }
 
-        Mat segmented = new Mat();
-        Imgproc.pyrMeanShiftFiltering(img, segmented, 8, 16, 0);
-        Imgproc.GaussianBlur(segmented, segmented, new Size(3, 3), 0);
-
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(segmented, hsv, Imgproc.COLOR_RGB2HSV);
+        Mat segmented = features.meanShift(maxSize, MEAN_SHIFT);
+        Mat hsv = features.hsv(maxSize, MEAN_SHIFT);
 
         double[] hsvClick = hsv.get(clickY, clickX);
         if (hsvClick == null) {
-            hsv.release();
-            segmented.release();
             return null;
         }
 
@@ -109,7 +110,7 @@ public class BoxSegmenterColor {
                     Scalar meanColor = Core.mean(roi);
                     roi.release();
 
-                    result = new BaseSegmenter.RegionData(rect, (int) area);
+                    result = new BaseSegmenter.RegionData(rect, (int) area, PackedContour.fromMat(largestContour));
                     result.color = new int[]{
                         (int) meanColor.val[0],
                         (int) meanColor.val[1],
@@ -137,7 +138,7 @@ public class BoxSegmenterColor {
                     Scalar meanColor = Core.mean(roi);
                     roi.release();
 
-                    result = new BaseSegmenter.RegionData(rect, (int) area);
+                    result = new BaseSegmenter.RegionData(rect, (int) area, PackedContour.fromMat(contour));
                     result.color = new int[]{
                         (int) meanColor.val[0],
                         (int) meanColor.val[1],
@@ -157,8 +158,6 @@ public class BoxSegmenterColor {
         dist.release();
         kernel.release();
         mask.release();
-        hsv.release();
-        segmented.release();
 
         return result;
     }
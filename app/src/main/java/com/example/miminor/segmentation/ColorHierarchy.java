@@ -0,0 +1,286 @@
+package com.example.miminor.segmentation;
+
+import com.example.miminor.utils.OklabImage;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Иерархия слияния пикселей (α-дерево) для выделения по клику с мгновенной сменой
+ * чувствительности.
+ *
+ * Строится один раз на изображение: ребра 4-связности с весом ΔOKLAB между соседями
+ * сортируются подсчетом по квантованному весу, и алгоритм Краскала строит дерево
+ * слияний минимального остовного дерева: каждое объединение — внутренний узел с уровнем,
+ * равным весу ребра. Листья раскладываются в порядке обхода, так что пиксели любого узла
+ * лежат в одном непрерывном отрезке.
+ *
+ * Регион клика при пороге α — старший предок листа с уровнем не выше α (α-связная
+ * компонента). Подъем и сбор пикселей занимают время, пропорциональное размеру региона.
+ */
+public class ColorHierarchy {
+    /** Квантование веса: WEIGHT_BINS корзин на диапазон [0, MAX_WEIGHT) ΔOKLAB */
+    private static final int WEIGHT_BINS = 4096;
+    private static final float MAX_WEIGHT = 0.5f;
+    /** Как часто построение проверяет отмену: раз в CANCEL_CHECK_MASK + 1 пикселей или ребер */
+    private static final int CANCEL_CHECK_MASK = (1 << 14) - 1;
+    private static final BooleanSupplier NEVER = () -> false;
+
+    public final int width;
+    public final int height;
+
+    /** Родитель узла дерева или -1 у корня; листья — 0..N-1, внутренние — N..2N-2 */
+    private final int[] parent;
+    /** Уровень внутреннего узла (квантованный вес ребра), для листьев 0 */
+    private final short[] level;
+    /** Отрезок узла в leafOrder: [first, first + size) */
+    private final int[] first;
+    private final int[] size;
+    private final int[] leafOrder;
+
+    private ColorHierarchy(int width, int height, int[] parent, short[] level,
+                           int[] first, int[] size, int[] leafOrder) {
+        this.width = width;
+        this.height = height;
+        this.parent = parent;
+        this.level = level;
+        this.first = first;
+        this.size = size;
+        this.leafOrder = leafOrder;
+    }
+
+    /**
+     * Порог α (ΔOKLAB между соседними пикселями) для чувствительности 0..100
+     */
+    public static float alphaForSensitivity(int sensitivity) {
+        int clamped = Math.max(0, Math.min(100, sensitivity));
+        return 0.004f + clamped * 0.0006f;
+    }
+
+    /**
+     * @param img RGB изображение (CV_8UC3); слегка сглаживается, чтобы шум не рвал регионы
+     */
+    public static ColorHierarchy build(Mat img) {
+        return build(img, NEVER);
+    }
+
+    /**
+     * Построение, которое можно прервать: cancelled опрашивается по ходу работы
+     * @throws CancellationException если cancelled вернул true
+     */
+    public static ColorHierarchy build(Mat img, BooleanSupplier cancelled) {
+        int width = img.cols();
+        int height = img.rows();
+
+        Mat smoothed = new Mat();
+        Imgproc.GaussianBlur(img, smoothed, new Size(5, 5), 0);
+        byte[] rgb = new byte[width * height * 3];
+        smoothed.get(0, 0, rgb);
+        smoothed.release();
+
+        int[] argb = new int[width * height];
+        for (int i = 0, p = 0; i < argb.length; i++, p += 3) {
+            argb[i] = 0xFF000000 | ((rgb[p] & 0xFF) << 16) | ((rgb[p + 1] & 0xFF) << 8) | (rgb[p + 2] & 0xFF);
+        }
+        checkCancelled(cancelled);
+        return build(OklabImage.fromPixels(argb, width, height), cancelled);
+    }
+
+    public static ColorHierarchy build(OklabImage image) {
+        return build(image, NEVER);
+    }
+
+    public static ColorHierarchy build(OklabImage image, BooleanSupplier cancelled) {
+        int width = image.width;
+        int height = image.height;
+        int n = width * height;
+
+        // Ребро e: 2p — вправо от p, 2p + 1 — вниз от p
+        int[] binCount = new int[WEIGHT_BINS + 1];
+        short[] edgeBin = new short[2 * n];
+        for (int p = 0; p < n; p++) {
+            if ((p & CANCEL_CHECK_MASK) == 0) {
+                checkCancelled(cancelled);
+            }
+            int x = p % width;
+            edgeBin[2 * p] = -1;
+            edgeBin[2 * p + 1] = -1;
+            if (x + 1 < width) {
+                short bin = weightBin(image, p, p + 1);
+                edgeBin[2 * p] = bin;
+                binCount[bin + 1]++;
+            }
+            if (p + width < n) {
+                short bin = weightBin(image, p, p + width);
+                edgeBin[2 * p + 1] = bin;
+                binCount[bin + 1]++;
+            }
+        }
+        for (int b = 0; b < WEIGHT_BINS; b++) {
+            binCount[b + 1] += binCount[b];
+        }
+        int[] edges = new int[binCount[WEIGHT_BINS]];
+        for (int e = 0; e < 2 * n; e++) {
+            if ((e & CANCEL_CHECK_MASK) == 0) {
+                checkCancelled(cancelled);
+            }
+            if (edgeBin[e] >= 0) {
+                edges[binCount[edgeBin[e]]++] = e;
+            }
+        }
+
+        int nodes = Math.max(1, 2 * n - 1);
+        int[] parent = new int[nodes];
+        short[] level = new short[nodes];
+        int[] left = new int[nodes];
+        int[] right = new int[nodes];
+        Arrays.fill(parent, -1);
+
+        int[] sets = new int[n];
+        int[] top = new int[n];
+        for (int p = 0; p < n; p++) {
+            sets[p] = p;
+            top[p] = p;
+        }
+
+        int next = n;
+        for (int i = 0; i < edges.length; i++) {
+            if ((i & CANCEL_CHECK_MASK) == 0) {
+                checkCancelled(cancelled);
+            }
+            int e = edges[i];
+            int p = e >> 1;
+            int q = (e & 1) == 0 ? p + 1 : p + width;
+            int rp = find(sets, p);
+            int rq = find(sets, q);
+            if (rp == rq) {
+                continue;
+            }
+            int node = next++;
+            level[node] = edgeBin[e];
+            left[node] = top[rp];
+            right[node] = top[rq];
+            parent[top[rp]] = node;
+            parent[top[rq]] = node;
+            sets[rq] = rp;
+            top[rp] = node;
+        }
+
+        // Размеры снизу вверх (дети создаются раньше родителей), отрезки — сверху вниз
+        int[] size = new int[nodes];
+        for (int p = 0; p < n; p++) {
+            size[p] = 1;
+        }
+        for (int node = n; node < next; node++) {
+            size[node] = size[left[node]] + size[right[node]];
+        }
+        int[] first = new int[nodes];
+        int offset = 0;
+        for (int node = next - 1; node >= 0; node--) {
+            if (parent[node] < 0) {
+                first[node] = offset;
+                offset += size[node];
+            }
+            if (node >= n) {
+                first[left[node]] = first[node];
+                first[right[node]] = first[node] + size[left[node]];
+            }
+        }
+        int[] leafOrder = new int[n];
+        for (int p = 0; p < n; p++) {
+            leafOrder[first[p]] = p;
+        }
+
+        return new ColorHierarchy(width, height, parent, level, first, size, leafOrder);
+    }
+
+    private static void checkCancelled(BooleanSupplier cancelled) {
+        if (cancelled.getAsBoolean()) {
+            throw new CancellationException("Color hierarchy build cancelled");
+        }
+    }
+
+    private static short weightBin(OklabImage image, int p, int q) {
+        float dl = image.L[p] - image.L[q];
+        float da = image.a[p] - image.a[q];
+        float db = image.b[p] - image.b[q];
+        float distance = (float) Math.sqrt(dl * dl + da * da + db * db);
+        return (short) Math.min(WEIGHT_BINS - 1, (int) (distance * (WEIGHT_BINS / MAX_WEIGHT)));
+    }
+
+    private static int find(int[] sets, int i) {
+        while (sets[i] != i) {
+            sets[i] = sets[sets[i]];
+            i = sets[i];
+        }
+        return i;
+    }
+
+    /**
+     * Память массивов дерева в байтах
+     */
+    public long getByteCount() {
+        return 4L * (parent.length + first.length + size.length + leafOrder.length) + 2L * level.length;
+    }
+
+    /**
+     * Узел α-связной компоненты пикселя (x, y)
+     */
+    private int componentNode(int x, int y, float alpha) {
+        int threshold = (int) (alpha * (WEIGHT_BINS / MAX_WEIGHT));
+        int node = y * width + x;
+        while (parent[node] >= 0 && level[parent[node]] <= threshold) {
+            node = parent[node];
+        }
+        return node;
+    }
+
+    /**
+     * Площадь α-связной компоненты пикселя
+     */
+    public int componentArea(int x, int y, float alpha) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return 0;
+        }
+        return size[componentNode(x, y, alpha)];
+    }
+
+    /**
+     * Регион клика при пороге α: рамка, площадь и маска внутри рамки
+     * @return null, если точка вне изображения
+     */
+    public BaseSegmenter.RegionData cut(int x, int y, float alpha) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return null;
+        }
+        int node = componentNode(x, y, alpha);
+        int from = first[node];
+        int to = from + size[node];
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = -1, maxY = -1;
+        for (int k = from; k < to; k++) {
+            int p = leafOrder[k];
+            int px = p % width;
+            int py = p / width;
+            if (px < minX) minX = px;
+            if (px > maxX) maxX = px;
+            if (py < minY) minY = py;
+            if (py > maxY) maxY = py;
+        }
+
+        org.opencv.core.Rect rect = new org.opencv.core.Rect(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        BaseSegmenter.RegionData region = new BaseSegmenter.RegionData(rect, to - from);
+        region.mask = new byte[rect.width * rect.height];
+        for (int k = from; k < to; k++) {
+            int p = leafOrder[k];
+            region.mask[(p / width - minY) * rect.width + (p % width - minX)] = 1;
+        }
+        return region;
+    }
+}
@@ -1,6 +1,7 @@
 package com.example.miminor.segmentation;
 
 import org.opencv.core.Core;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.Scalar;
@@ -15,11 +16,27 @@ import java.util.List;
 /**
  * Contour-based segmentation для режима точности с CIEDE2000.
  * Optimized параметры pyrMeanShift: sp=15, sr=30, maxLevel=0
+ * Кандидаты — компоненты верхних множеств яркости на всех порогах из одного {@link MaxTree}
  * 
  * Производительность: 200-500мс на 400px
  * Точность: IoU > 0.85 с CIEDE2000 метрикой
  */
 public class ContourSegmenter extends BaseSegmenter {
+    /** Пороги яркости для компонент (20, 60, ..., 220); дерево строится один раз на все */
+    private static final int[] THRESHOLDS = levels(20, 220, 40);
+    private static final int MIN_AREA = 50;
+    private static final int MAX_REGIONS = 20;
+
+    /** Сглаживание перед порогами; то же использует выделение по клику (ContourSegmenterColor) */
+    static final ImageFeatureStore.MeanShift MEAN_SHIFT = new ImageFeatureStore.MeanShift(15, 30, 0, 0);
+
+    private static int[] levels(int from, int to, int step) {
+        int[] result = new int[(to - from) / step + 1];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = from + i * step;
+        }
+        return result;
+    }
 
     @Override
     protected String getAlgorithmName() {
@@ -33,74 +50,92 @@ public class ContourSegmenter extends BaseSegmenter {
 
     @Override
     protected RegionData extractRegionByColor(Mat img, int targetColor, int x, int y, int sensitivity) {
-        return ContourSegmenterColor.extractByColor(img, targetColor, x, y, sensitivity);
+        return ContourSegmenterColor.extractByColor(getFeatureStore(), getProcessingSize(), targetColor, x, y, sensitivity);
     }
 
     @Override
     protected List<RegionData> extractRegions(Mat img) {
-        Mat segmented = new Mat();
-        Imgproc.pyrMeanShiftFiltering(img, segmented, 15, 30, 0);
-
-        List<RegionData> allRegions = new ArrayList<>();
+        // Сглаженное изображение и его яркость принадлежат хранилищу признаков
+        ImageFeatureStore features = getFeatureStore();
+        Mat segmented = features.meanShift(getProcessingSize(), MEAN_SHIFT);
 
+        // Плоское открытие перестановочно с порогом: одно открытие серого вместо открытия каждой маски
         Mat gray = new Mat();
-        Imgproc.cvtColor(segmented, gray, Imgproc.COLOR_RGB2GRAY);
+        Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
+        Imgproc.morphologyEx(features.gray(getProcessingSize(), MEAN_SHIFT), gray, Imgproc.MORPH_OPEN, kernel);
+        kernel.release();
+
+        int width = gray.cols();
+        int height = gray.rows();
+        byte[] grayData = new byte[width * height];
+        gray.get(0, 0, grayData);
+        gray.release();
+
+        // Компоненты {gray > t} на всех порогах — из одного дерева компонент
+        MaxTree tree = MaxTree.build(grayData, width, height);
+        int[] nodes = largest(tree, tree.components(THRESHOLDS, MIN_AREA), MAX_REGIONS);
+        byte[][] masks = tree.masks(nodes);
 
-        for (int threshold = 20; threshold <= 220; threshold += 40) {
-            Mat binary = new Mat();
-            Imgproc.threshold(gray, binary, threshold, 255, Imgproc.THRESH_BINARY);
+        List<RegionData> allRegions = new ArrayList<>();
+        for (int i = 0; i < nodes.length; i++) {
+            org.opencv.core.Rect rect = tree.getBounds(nodes[i]);
 
-            Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_ELLIPSE, new Size(3, 3));
-            Imgproc.morphologyEx(binary, binary, Imgproc.MORPH_OPEN, kernel);
-            kernel.release();
+            Mat mask = new Mat(rect.height, rect.width, CvType.CV_8UC1);
+            mask.put(0, 0, masks[i]);
 
             List<MatOfPoint> contours = new ArrayList<>();
             Mat hierarchy = new Mat();
-            Imgproc.findContours(binary, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+            Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE,
+                    new org.opencv.core.Point(rect.x, rect.y));
+            hierarchy.release();
 
+            // Компонента 8-связна, поэтому внешний контур у нее один
+            PackedContour outline = PackedContour.EMPTY;
             for (MatOfPoint contour : contours) {
-                double area = Imgproc.contourArea(contour);
-                if (area >= 50) {
-                    org.opencv.core.Rect rect = Imgproc.boundingRect(contour);
-
-                    Mat roi = segmented.submat(rect);
-                    Scalar meanColor = Core.mean(roi);
-                    roi.release();
-
-                    List<org.opencv.core.Point> contourPoints = new ArrayList<>();
-                    org.opencv.core.Point[] pts = contour.toArray();
-                    for (org.opencv.core.Point p : pts) {
-                        contourPoints.add(p);
-                    }
-
-                    RegionData region = new RegionData(rect, (int) area, contourPoints);
-                    region.color = new int[]{
-                        (int) meanColor.val[0],
-                        (int) meanColor.val[1],
-                        (int) meanColor.val[2]
-                    };
-                    allRegions.add(region);
+                if (outline.isEmpty()) {
+                    outline = PackedContour.fromMat(contour);
                 }
+                contour.release();
             }
 
-            hierarchy.release();
-            binary.release();
+            Mat roi = segmented.submat(rect);
+            Scalar meanColor = Core.mean(roi, mask);
+            roi.release();
+            mask.release();
+
+            RegionData region = new RegionData(rect, tree.getArea(nodes[i]), outline);
+            region.mask = masks[i];
+            region.color = new int[]{
+                (int) meanColor.val[0],
+                (int) meanColor.val[1],
+                (int) meanColor.val[2]
+            };
+            allRegions.add(region);
         }
 
-        gray.release();
-        segmented.release();
+        return allRegions;
+    }
 
-        Collections.sort(allRegions, new Comparator<RegionData>() {
+    /**
+     * До limit узлов с наибольшей площадью, по убыванию площади; маски и контуры
+     * строятся только для них
+     */
+    private static int[] largest(MaxTree tree, int[] nodes, int limit) {
+        List<Integer> sorted = new ArrayList<>(nodes.length);
+        for (int node : nodes) {
+            sorted.add(node);
+        }
+        Collections.sort(sorted, new Comparator<Integer>() {
             @Override
-            public int compare(RegionData r1, RegionData r2) {
-                return Integer.compare(r2.area, r1.area);
+            public int compare(Integer n1, Integer n2) {
+                return Integer.compare(tree.getArea(n2), tree.getArea(n1));
             }
         });
 
-        if (allRegions.size() > 20) {
-            allRegions = allRegions.subList(0, 20);
+        int[] result = new int[Math.min(limit, sorted.size())];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sorted.get(i);
         }
-
-        return allRegions;
+        return result;
     }
 }
@@ -15,21 +15,22 @@ import java.util.List;
  */
 public class ContourSegmenterColor {
 
-    public static BaseSegmenter.RegionData extractByColor(Mat img, int targetColor, int clickX, int clickY, int sensitivity) {
+    /**
+     * @param features хранилище, привязанное к изображению; сглаживание общее с
+     *                 {@link ContourSegmenter}, так что после анализа оно уже готово
+     */
+    public static BaseSegmenter.RegionData extractByColor(ImageFeatureStore features, int maxSize, int targetColor,
+                                                          int clickX, int clickY, int sensitivity) {
+        Mat img = features.rgb(maxSize);
         if (clickX < 0 || clickY < 0 || clickX >= img.cols() || clickY >= img.rows()) {
             return null;
         }
 
-        Mat segmented = new Mat();
-        Imgproc.pyrMeanShiftFiltering(img, segmented, 15, 30, 0);
-
-        Mat hsv = new Mat();
-        Imgproc.cvtColor(segmented, hsv, Imgproc.COLOR_RGB2HSV);
+        Mat segmented = features.meanShift(maxSize, ContourSegmenter.MEAN_SHIFT);
+        Mat hsv = features.hsv(maxSize, ContourSegmenter.MEAN_SHIFT);
 
         double[] hsvClick = hsv.get(clickY, clickX);
         if (hsvClick == null) {
-            hsv.release();
-            segmented.release();
             return null;
         }
 
@@ -72,13 +73,7 @@ public class ContourSegmenterColor {
                 Scalar meanColor = Core.mean(roi);
                 roi.release();
 
-                List<org.opencv.core.Point> contourPoints = new ArrayList<>();
-                org.opencv.core.Point[] pts = contour.toArray();
-                for (org.opencv.core.Point p : pts) {
-                    contourPoints.add(p);
-                }
-
-                result = new BaseSegmenter.RegionData(rect, (int) area, contourPoints);
+                result = new BaseSegmenter.RegionData(rect, (int) area, PackedContour.fromMat(contour));
                 result.color = new int[]{
                     (int) meanColor.val[0],
                     (int) meanColor.val[1],
@@ -91,8 +86,6 @@ public class ContourSegmenterColor {
         hierarchy.release();
         kernel.release();
         mask.release();
-        hsv.release();
-        segmented.release();
 
         return result;
     }
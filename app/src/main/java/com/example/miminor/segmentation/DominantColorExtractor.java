@@ -0,0 +1,289 @@
+package com.example.miminor.segmentation;
+
+import android.graphics.Color;
+
+import com.example.miminor.utils.ColorConverter;
+import com.example.miminor.utils.OklabColor;
+import com.example.miminor.utils.OklabImage;
+
+import org.opencv.core.Mat;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Доминантные цвета регионов по маске, а не по ограничивающему прямоугольнику.
+ *
+ * Изображение один раз переводится в OKLAB с корзиной для каждого пикселя
+ * ({@link ColorPlanes}, хранится в {@link ImageFeatureStore#colorPlanes} и общая для
+ * анализа и кликов). Затем гистограмма каждого региона (8×8×8 корзин, примитивные счетчики и суммы) набирается
+ * по его собственной форме: маске, заливке контура или рамке. Перекрывающиеся и
+ * вложенные регионы поэтому учитывают все свои пиксели. Из гистограммы берутся пики
+ * вместе с соседними корзинами: самый крупный — основной цвет, следующие с долей
+ * не меньше {@link #MIN_SHARE} — дополнительные.
+ */
+public class DominantColorExtractor {
+    private static final int L_BINS = 8;
+    private static final int AB_BINS = 8;
+    private static final int BINS = L_BINS * AB_BINS * AB_BINS;
+    /** a и b ограничиваются диапазоном ±AB_RANGE, куда попадает весь sRGB */
+    private static final float AB_RANGE = 0.4f;
+
+    public static final int MAX_COLORS = 3;
+    public static final float MIN_SHARE = 0.1f;
+
+    /**
+     * Цвета одного региона: ARGB по убыванию доли, основной первым
+     */
+    public static class RegionColors {
+        public final int[] colors;
+        public final float[] shares;
+
+        RegionColors(int[] colors, float[] shares) {
+            this.colors = colors;
+            this.shares = shares;
+        }
+
+        public int getDominant() {
+            return colors[0];
+        }
+    }
+
+    /**
+     * Изображение в OKLAB и корзина гистограммы каждого пикселя
+     */
+    public static final class ColorPlanes {
+        final OklabImage image;
+        final short[] pixelBins;
+
+        private ColorPlanes(OklabImage image, short[] pixelBins) {
+            this.image = image;
+            this.pixelBins = pixelBins;
+        }
+
+        public long getByteCount() {
+            // Три плоскости float и short на пиксель
+            return (3L * 4 + 2) * pixelBins.length;
+        }
+    }
+
+    /**
+     * Гистограмма одного региона; буферы переиспользуются между регионами
+     */
+    private static class Histogram {
+        final OklabImage image;
+        final short[] pixelBins;
+        final int[] counts = new int[BINS];
+        final float[] sumL = new float[BINS];
+        final float[] sumA = new float[BINS];
+        final float[] sumB = new float[BINS];
+
+        Histogram(ColorPlanes planes) {
+            this.image = planes.image;
+            this.pixelBins = planes.pixelBins;
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+            Arrays.fill(sumL, 0);
+            Arrays.fill(sumA, 0);
+            Arrays.fill(sumB, 0);
+        }
+
+        /** Пиксели [from, to) одной строки; индексы — в пикселях изображения */
+        void addSpan(int from, int to) {
+            for (int p = from; p < to; p++) {
+                int cell = pixelBins[p];
+                counts[cell]++;
+                sumL[cell] += image.L[p];
+                sumA[cell] += image.a[p];
+                sumB[cell] += image.b[p];
+            }
+        }
+    }
+
+    /**
+     * @param img RGB изображение (CV_8UC3)
+     */
+    public static ColorPlanes planes(Mat img) {
+        int width = img.cols();
+        int height = img.rows();
+
+        byte[] rgb = new byte[width * height * 3];
+        img.get(0, 0, rgb);
+        int[] argb = new int[width * height];
+        for (int p = 0, i = 0; p < argb.length; p++, i += 3) {
+            argb[p] = 0xFF000000 | ((rgb[i] & 0xFF) << 16) | ((rgb[i + 1] & 0xFF) << 8) | (rgb[i + 2] & 0xFF);
+        }
+        OklabImage image = OklabImage.fromPixels(argb, width, height);
+        short[] pixelBins = new short[argb.length];
+        for (int p = 0; p < pixelBins.length; p++) {
+            pixelBins[p] = (short) bin(image.L[p], image.a[p], image.b[p]);
+        }
+        return new ColorPlanes(image, pixelBins);
+    }
+
+    /**
+     * @param planes  изображение в координатах регионов (см. {@link #planes})
+     * @param regions регионы; форма — маска, если есть, иначе контур (заливка по четности
+     *                пересечений), иначе рамка
+     * @return цвета по индексу региона; null для регионов без пикселей
+     */
+    public static RegionColors[] extract(ColorPlanes planes, List<BaseSegmenter.RegionData> regions) {
+        Histogram histogram = new Histogram(planes);
+        RegionColors[] result = new RegionColors[regions.size()];
+        for (int i = 0; i < result.length; i++) {
+            BaseSegmenter.RegionData region = regions.get(i);
+            histogram.clear();
+            if (region.mask != null) {
+                addMask(histogram, region.bounds, region.mask);
+            } else if (region.contour != null && region.contour.size() >= 3) {
+                addPolygon(histogram, region.contour);
+            } else {
+                addRect(histogram, region.bounds);
+            }
+            result[i] = peaks(histogram.counts, histogram.sumL, histogram.sumA, histogram.sumB, 0);
+        }
+        return result;
+    }
+
+    private static void addMask(Histogram histogram, org.opencv.core.Rect bounds, byte[] mask) {
+        int width = histogram.image.width;
+        int x0 = Math.max(0, bounds.x);
+        int y0 = Math.max(0, bounds.y);
+        int x1 = Math.min(width, bounds.x + bounds.width);
+        int y1 = Math.min(histogram.image.height, bounds.y + bounds.height);
+
+        for (int y = y0; y < y1; y++) {
+            int src = (y - bounds.y) * bounds.width - bounds.x;
+            int dst = y * width;
+            for (int x = x0; x < x1; x++) {
+                if (mask[src + x] != 0) {
+                    histogram.addSpan(dst + x, dst + x + 1);
+                }
+            }
+        }
+    }
+
+    private static void addRect(Histogram histogram, org.opencv.core.Rect bounds) {
+        int width = histogram.image.width;
+        int x0 = Math.max(0, bounds.x);
+        int y0 = Math.max(0, bounds.y);
+        int x1 = Math.min(width, bounds.x + bounds.width);
+        int y1 = Math.min(histogram.image.height, bounds.y + bounds.height);
+
+        for (int y = y0; y < y1; y++) {
+            histogram.addSpan(y * width + x0, y * width + Math.max(x0, x1));
+        }
+    }
+
+    /**
+     * Заливка многоугольника по правилу чет-нечет (см. {@link PackedContour#rowCrossings})
+     */
+    private static void addPolygon(Histogram histogram, PackedContour contour) {
+        int width = histogram.image.width;
+        int yStart = Math.max(0, contour.minY);
+        int yEnd = Math.min(histogram.image.height - 1, contour.maxY);
+        double[] crossings = new double[contour.size()];
+
+        for (int y = yStart; y <= yEnd; y++) {
+            int count = contour.rowCrossings(y, crossings);
+            int row = y * width;
+            for (int k = 0; k + 1 < count; k += 2) {
+                int xStart = Math.max(0, (int) Math.ceil(crossings[k]));
+                int xEnd = Math.min(width - 1, (int) Math.floor(crossings[k + 1]));
+                if (xStart <= xEnd) {
+                    histogram.addSpan(row + xStart, row + xEnd + 1);
+                }
+            }
+        }
+    }
+
+    private static int bin(float L, float a, float b) {
+        int l = clampBin((int) (L * L_BINS), L_BINS);
+        int ia = clampBin((int) ((a + AB_RANGE) * (AB_BINS / (2 * AB_RANGE))), AB_BINS);
+        int ib = clampBin((int) ((b + AB_RANGE) * (AB_BINS / (2 * AB_RANGE))), AB_BINS);
+        return (l * AB_BINS + ia) * AB_BINS + ib;
+    }
+
+    private static int clampBin(int value, int bins) {
+        return value < 0 ? 0 : (value >= bins ? bins - 1 : value);
+    }
+
+    /**
+     * Выбирает до MAX_COLORS пиков; каждый пик забирает соседние корзины (±1 по осям),
+     * чтобы однородный цвет на границе корзин не делился на два.
+     */
+    private static RegionColors peaks(int[] histogram, float[] sumL, float[] sumA, float[] sumB, int offset) {
+        int total = 0;
+        for (int i = 0; i < BINS; i++) {
+            total += histogram[offset + i];
+        }
+        if (total == 0) {
+            return null;
+        }
+
+        boolean[] taken = new boolean[BINS];
+        int[] colors = new int[MAX_COLORS];
+        float[] shares = new float[MAX_COLORS];
+        int found = 0;
+
+        while (found < MAX_COLORS) {
+            int peak = -1;
+            int peakCount = 0;
+            for (int i = 0; i < BINS; i++) {
+                if (!taken[i] && histogram[offset + i] > peakCount) {
+                    peak = i;
+                    peakCount = histogram[offset + i];
+                }
+            }
+            if (peak < 0) {
+                break;
+            }
+
+            int pl = peak / (AB_BINS * AB_BINS);
+            int pa = (peak / AB_BINS) % AB_BINS;
+            int pb = peak % AB_BINS;
+
+            int clusterCount = 0;
+            double clusterL = 0, clusterA = 0, clusterB = 0;
+            for (int l = Math.max(0, pl - 1); l <= Math.min(L_BINS - 1, pl + 1); l++) {
+                for (int a = Math.max(0, pa - 1); a <= Math.min(AB_BINS - 1, pa + 1); a++) {
+                    for (int b = Math.max(0, pb - 1); b <= Math.min(AB_BINS - 1, pb + 1); b++) {
+                        int i = (l * AB_BINS + a) * AB_BINS + b;
+                        if (taken[i]) {
+                            continue;
+                        }
+                        taken[i] = true;
+                        clusterCount += histogram[offset + i];
+                        clusterL += sumL[offset + i];
+                        clusterA += sumA[offset + i];
+                        clusterB += sumB[offset + i];
+                    }
+                }
+            }
+
+            float share = (float) clusterCount / total;
+            if (found > 0 && share < MIN_SHARE) {
+                break;
+            }
+
+            int[] rgb = ColorConverter.oklabToRgb(new OklabColor(
+                (float) (clusterL / clusterCount),
+                (float) (clusterA / clusterCount),
+                (float) (clusterB / clusterCount)));
+            colors[found] = Color.rgb(rgb[0], rgb[1], rgb[2]);
+            shares[found] = share;
+            found++;
+        }
+
+        if (found < MAX_COLORS) {
+            int[] trimmedColors = new int[found];
+            float[] trimmedShares = new float[found];
+            System.arraycopy(colors, 0, trimmedColors, 0, found);
+            System.arraycopy(shares, 0, trimmedShares, 0, found);
+            return new RegionColors(trimmedColors, trimmedShares);
+        }
+        return new RegionColors(colors, shares);
+    }
+}
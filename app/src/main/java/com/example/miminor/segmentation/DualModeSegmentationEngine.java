@@ -7,6 +7,7 @@ import android.util.Log;
 import com.example.miminor.utils.BufferPool;
 import com.example.miminor.utils.ColorConverter;
 import com.example.miminor.utils.OklabColor;
+import com.example.miminor.utils.SegmentationCache;
 
 import org.opencv.android.Utils;
 import org.opencv.core.Core;
@@ -30,9 +31,8 @@ public class DualModeSegmentationEngine {
     private BufferPool bufferPool;
     
     private boolean useStreamingMode = true;
-    private SegmentationResult cachedResult;
-    private long cacheTimestamp;
-    private static final long CACHE_VALIDITY_MS = 2000;
+    /** Результаты по содержимому кадра, режиму и размеру обработки */
+    private final SegmentationCache resultCache = new SegmentationCache();
 
     public DualModeSegmentationEngine() {
         this.streamingSegmenter = new SlicSegmenter();
@@ -43,35 +43,31 @@ public class DualModeSegmentationEngine {
      * Устанавливает режим работы.
      */
     public void setMode(boolean streaming) {
-        if (this.useStreamingMode != streaming) {
-            invalidateCache();
-        }
         this.useStreamingMode = streaming;
     }
 
     /**
      * Сегментирует изображение в выбранном режиме.
+     * Повторный вызов для кадра с тем же содержимым возвращает сохраненный результат.
      */
     public SegmentationResult segment(Bitmap bitmap) {
-        if (isCacheValid()) {
+        BaseSegmenter segmenter = useStreamingMode ? streamingSegmenter : precisionSegmenter;
+        String key = resultCache.generateKey(bitmap, segmenter.getAlgorithmName(), segmenter.getProcessingSize());
+        SegmentationResult cached = resultCache.get(key);
+        if (cached != null) {
             Log.d(TAG, "Using cached result");
-            return cachedResult;
+            return cached;
         }
 
         long start = System.currentTimeMillis();
         
         initBufferPool(bitmap.getWidth(), bitmap.getHeight());
         
-        SegmentationResult result;
-        if (useStreamingMode) {
-            result = streamingSegmenter.analyze(bitmap);
-        } else {
-            result = precisionSegmenter.analyze(bitmap);
+        SegmentationResult result = segmenter.analyze(bitmap);
+        if (result.isSuccess()) {
+            resultCache.put(key, result, (int) (result.getByteCount() / 1024) + 1);
         }
         
-        cachedResult = result;
-        cacheTimestamp = System.currentTimeMillis();
-        
         long elapsed = System.currentTimeMillis() - start;
         String mode = useStreamingMode ? "STREAMING" : "PRECISION";
         Log.d(TAG, String.format("%s mode: %dms, %d segments", 
@@ -90,24 +86,24 @@ public class DualModeSegmentationEngine {
             return null;
         }
         
-        int r = 0, g = 0, b = 0, count = 0;
+        int left = Math.max(0, x - radius);
+        int top = Math.max(0, y - radius);
+        int right = Math.min(bitmap.getWidth(), x + radius + 1);
+        int bottom = Math.min(bitmap.getHeight(), y + radius + 1);
+        int windowWidth = right - left;
+        int count = windowWidth * (bottom - top);
         
-        for (int dy = -radius; dy <= radius; dy++) {
-            for (int dx = -radius; dx <= radius; dx++) {
-                int px = x + dx;
-                int py = y + dy;
-                
-                if (px >= 0 && px < bitmap.getWidth() && py >= 0 && py < bitmap.getHeight()) {
-                    int pixel = bitmap.getPixel(px, py);
-                    r += android.graphics.Color.red(pixel);
-                    g += android.graphics.Color.green(pixel);
-                    b += android.graphics.Color.blue(pixel);
-                    count++;
-                }
-            }
-        }
+        if (count <= 0) return null;
+        
+        int[] pixels = new int[count];
+        bitmap.getPixels(pixels, 0, windowWidth, left, top, windowWidth, bottom - top);
         
-        if (count == 0) return null;
+        int r = 0, g = 0, b = 0;
+        for (int pixel : pixels) {
+            r += (pixel >> 16) & 0xFF;
+            g += (pixel >> 8) & 0xFF;
+            b += pixel & 0xFF;
+        }
         
         r /= count;
         g /= count;
@@ -154,19 +150,10 @@ public class DualModeSegmentationEngine {
         }
     }
 
-    private boolean isCacheValid() {
-        if (cachedResult == null) return false;
-        long age = System.currentTimeMillis() - cacheTimestamp;
-        return age < CACHE_VALIDITY_MS;
-    }
-
-    private void invalidateCache() {
-        cachedResult = null;
-        cacheTimestamp = 0;
-    }
-
     public void cleanup() {
-        invalidateCache();
+        resultCache.clear();
+        streamingSegmenter.getFeatureStore().release();
+        precisionSegmenter.getFeatureStore().release();
         if (bufferPool != null) {
             bufferPool.clear();
             bufferPool = null;
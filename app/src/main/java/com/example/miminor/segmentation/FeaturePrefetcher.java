@@ -0,0 +1,113 @@
+package com.example.miminor.segmentation;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Предвыборка признаков изображения сразу после загрузки, пока пользователь еще не кликнул.
+ *
+ * В потоке фонового приоритета строятся уменьшенное изображение и иерархия слияния
+ * ({@link BaseSegmenter#prepareColorHierarchy}) — то, что использует клик. Клик вытесняет
+ * предвыборку: построение иерархии опрашивает флаг и прерывается, освобождая хранилище
+ * признаков, а после клика начинается заново (если клик уже построил иерархию, повтор
+ * ничего не делает). Не прерывается только уменьшение изображения, это миллисекунды.
+ */
+public class FeaturePrefetcher {
+    private static final String TAG = "FeaturePrefetcher";
+
+    private final ExecutorService executor;
+
+    /** Номер текущей предвыборки; смена номера отменяет прежнюю */
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicInteger activeTaps = new AtomicInteger();
+    private final Object pauseLock = new Object();
+
+    public FeaturePrefetcher() {
+        this.executor = Executors.newSingleThreadExecutor(runnable -> new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            runnable.run();
+        }, "FeaturePrefetch"));
+    }
+
+    /**
+     * Запускает предвыборку для bitmap в хранилище сегментатора, отменяя прежнюю
+     */
+    public void start(Bitmap bitmap, BaseSegmenter segmenter) {
+        final int run = generation.incrementAndGet();
+        wakeUp();
+        executor.execute(() -> prefetch(run, bitmap, segmenter));
+    }
+
+    /**
+     * Клик поставлен в очередь: текущее построение прерывается, новое не начнется до
+     * {@link #tapFinished()}. Вызывается до отправки клика на выполнение; каждому вызову
+     * должен соответствовать tapFinished, в том числе если клик не удалось отправить.
+     */
+    public void tapStarted() {
+        activeTaps.incrementAndGet();
+    }
+
+    public void tapFinished() {
+        if (activeTaps.decrementAndGet() == 0) {
+            wakeUp();
+        }
+    }
+
+    public void cancel() {
+        generation.incrementAndGet();
+        wakeUp();
+    }
+
+    public void shutdown() {
+        cancel();
+        executor.shutdownNow();
+    }
+
+    private void wakeUp() {
+        synchronized (pauseLock) {
+            pauseLock.notifyAll();
+        }
+    }
+
+    private void prefetch(int run, Bitmap bitmap, BaseSegmenter segmenter) {
+        long startTime = System.currentTimeMillis();
+        while (awaitIdle(run) && !bitmap.isRecycled()) {
+            try {
+                segmenter.prepareColorHierarchy(bitmap,
+                    () -> activeTaps.get() > 0 || generation.get() != run);
+                Log.d(TAG, "Prefetched in " + (System.currentTimeMillis() - startTime) + "ms");
+                return;
+            } catch (CancellationException e) {
+                Log.d(TAG, "Prefetch pre-empted");
+            } catch (RuntimeException e) {
+                // Изображение могли освободить во время построения; клик посчитает признаки сам
+                Log.w(TAG, "Prefetch failed", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Ждет, пока не останется кликов
+     * @return false, если предвыборка отменена
+     */
+    private boolean awaitIdle(int run) {
+        synchronized (pauseLock) {
+            while (activeTaps.get() > 0 && generation.get() == run) {
+                try {
+                    pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return generation.get() == run;
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.miminor.segmentation;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+import android.util.LruCache;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Признаки одного изображения, общие для сегментаторов и кликов: уменьшенное RGB, Lab,
+ * результат pyrMeanShiftFiltering и производные от него HSV, яркость и границы Canny,
+ * иерархия слияния, OKLAB с корзинами доминантных цветов. Каждый признак считается при первом запросе и хранится, пока
+ * изображение не сменится.
+ *
+ * Порядок работы: все обращения — внутри synchronized (store), первым вызовом {@link #bind}.
+ * Возвращаемые Mat принадлежат хранилищу: их нельзя изменять и освобождать. Признаки сверх
+ * бюджета памяти вытесняются по LRU, но освобождаются только при следующем bind или
+ * {@link #release()}, поэтому Mat, полученные в текущем блоке, остаются действительными.
+ */
+public class ImageFeatureStore {
+    private static final String TAG = "ImageFeatureStore";
+    private static final int MAX_BUDGET_MB = 48;
+
+    /**
+     * Параметры сглаживания pyrMeanShiftFiltering (и необязательного размытия после него),
+     * часть ключа производных признаков
+     */
+    public static final class MeanShift {
+        public final double spatialRadius;
+        public final double colorRadius;
+        public final int maxLevel;
+        /** Сторона ядра GaussianBlur после фильтра, 0 — без размытия */
+        public final int blurSize;
+
+        public MeanShift(double spatialRadius, double colorRadius, int maxLevel, int blurSize) {
+            this.spatialRadius = spatialRadius;
+            this.colorRadius = colorRadius;
+            this.maxLevel = maxLevel;
+            this.blurSize = blurSize;
+        }
+
+        String key() {
+            return spatialRadius + "/" + colorRadius + "/" + maxLevel + "/" + blurSize;
+        }
+    }
+
+    private static final class Feature {
+        final Object value;
+        final int sizeKb;
+
+        Feature(Object value, int sizeKb) {
+            this.value = value;
+            this.sizeKb = sizeKb;
+        }
+
+        void release() {
+            if (value instanceof Mat) {
+                ((Mat) value).release();
+            }
+        }
+    }
+
+    private final LruCache<String, Feature> features;
+    /** Вытесненные признаки, которые еще могут использоваться в текущем блоке */
+    private final List<Feature> evicted = new ArrayList<>();
+
+    private WeakReference<Bitmap> source;
+    private int sourceGeneration;
+
+    public ImageFeatureStore() {
+        final int maxMemoryKb = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        final int budgetKb = Math.min(MAX_BUDGET_MB * 1024, maxMemoryKb / 4);
+
+        features = new LruCache<String, Feature>(budgetKb) {
+            @Override
+            protected int sizeOf(String key, Feature feature) {
+                return feature.sizeKb;
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Feature oldValue, Feature newValue) {
+                ImageFeatureStore.this.evicted.add(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Привязывает хранилище к bitmap. Если это другое изображение или его содержимое
+     * изменилось, все признаки освобождаются.
+     * @return true, если признаки прежнего изображения сохранены
+     */
+    public synchronized boolean bind(Bitmap bitmap) {
+        releaseEvicted();
+        Bitmap current = source != null ? source.get() : null;
+        if (current == bitmap && sourceGeneration == bitmap.getGenerationId()) {
+            return true;
+        }
+        release();
+        source = new WeakReference<>(bitmap);
+        sourceGeneration = bitmap.getGenerationId();
+        return false;
+    }
+
+    /**
+     * Освобождает все признаки; следующий bind начнет с пустого хранилища
+     */
+    public synchronized void release() {
+        features.evictAll();
+        releaseEvicted();
+        source = null;
+    }
+
+    private void releaseEvicted() {
+        for (Feature feature : evicted) {
+            feature.release();
+        }
+        evicted.clear();
+    }
+
+    private Bitmap sourceBitmap() {
+        Bitmap bitmap = source != null ? source.get() : null;
+        if (bitmap == null) {
+            throw new IllegalStateException("ImageFeatureStore is not bound to an image");
+        }
+        return bitmap;
+    }
+
+    private Mat cached(String key) {
+        Feature feature = features.get(key);
+        return feature != null ? (Mat) feature.value : null;
+    }
+
+    private Mat store(String key, Mat mat) {
+        int sizeKb = (int) (mat.total() * mat.elemSize() / 1024) + 1;
+        features.put(key, new Feature(mat, sizeKb));
+        return mat;
+    }
+
+    // ---------- features ----------
+
+    /**
+     * Изображение RGB (CV_8UC3), уменьшенное так, что большая сторона не больше maxSize
+     */
+    public synchronized Mat rgb(int maxSize) {
+        String key = "rgb/" + maxSize;
+        Mat mat = cached(key);
+        if (mat == null) {
+            mat = store(key, resize(sourceBitmap(), maxSize));
+        }
+        return mat;
+    }
+
+    public synchronized Mat lab(int maxSize) {
+        String key = "lab/" + maxSize;
+        Mat mat = cached(key);
+        if (mat == null) {
+            mat = new Mat();
+            Imgproc.cvtColor(rgb(maxSize), mat, Imgproc.COLOR_RGB2Lab);
+            store(key, mat);
+        }
+        return mat;
+    }
+
+    public synchronized Mat meanShift(int maxSize, MeanShift params) {
+        String key = "ms/" + maxSize + "/" + params.key();
+        Mat mat = cached(key);
+        if (mat == null) {
+            long startTime = System.currentTimeMillis();
+            mat = new Mat();
+            Imgproc.pyrMeanShiftFiltering(rgb(maxSize), mat, params.spatialRadius, params.colorRadius, params.maxLevel);
+            if (params.blurSize > 0) {
+                Imgproc.GaussianBlur(mat, mat, new Size(params.blurSize, params.blurSize), 0);
+            }
+            store(key, mat);
+            Log.d(TAG, "Mean shift " + params.key() + " in " + (System.currentTimeMillis() - startTime) + "ms");
+        }
+        return mat;
+    }
+
+    /**
+     * HSV сглаженного изображения
+     */
+    public synchronized Mat hsv(int maxSize, MeanShift params) {
+        String key = "hsv/" + maxSize + "/" + params.key();
+        Mat mat = cached(key);
+        if (mat == null) {
+            mat = new Mat();
+            Imgproc.cvtColor(meanShift(maxSize, params), mat, Imgproc.COLOR_RGB2HSV);
+            store(key, mat);
+        }
+        return mat;
+    }
+
+    /**
+     * Яркость сглаженного изображения
+     */
+    public synchronized Mat gray(int maxSize, MeanShift params) {
+        String key = "gray/" + maxSize + "/" + params.key();
+        Mat mat = cached(key);
+        if (mat == null) {
+            mat = new Mat();
+            Imgproc.cvtColor(meanShift(maxSize, params), mat, Imgproc.COLOR_RGB2GRAY);
+            store(key, mat);
+        }
+        return mat;
+    }
+
+    /**
+     * Границы Canny по яркости сглаженного изображения
+     */
+    public synchronized Mat edges(int maxSize, MeanShift params, double lowThreshold, double highThreshold) {
+        String key = "edges/" + maxSize + "/" + params.key() + "/" + lowThreshold + "/" + highThreshold;
+        Mat mat = cached(key);
+        if (mat == null) {
+            mat = new Mat();
+            Imgproc.Canny(gray(maxSize, params), mat, lowThreshold, highThreshold);
+            store(key, mat);
+        }
+        return mat;
+    }
+
+    /**
+     * OKLAB и корзины гистограммы уменьшенного RGB для доминантных цветов
+     * (см. {@link DominantColorExtractor})
+     */
+    public synchronized DominantColorExtractor.ColorPlanes colorPlanes(int maxSize) {
+        String key = "colorPlanes/" + maxSize;
+        Feature feature = features.get(key);
+        if (feature != null) {
+            return (DominantColorExtractor.ColorPlanes) feature.value;
+        }
+        DominantColorExtractor.ColorPlanes planes = DominantColorExtractor.planes(rgb(maxSize));
+        features.put(key, new Feature(planes, (int) (planes.getByteCount() / 1024) + 1));
+        return planes;
+    }
+
+    /**
+     * Иерархия слияния для выделения по клику (см. {@link ColorHierarchy})
+     */
+    public synchronized ColorHierarchy colorHierarchy(int maxSize) {
+        return colorHierarchy(maxSize, () -> false);
+    }
+
+    /**
+     * Иерархия, построение которой прерывается, когда cancelled вернет true; прерванная
+     * иерархия не сохраняется
+     * @throws java.util.concurrent.CancellationException при отмене
+     */
+    public synchronized ColorHierarchy colorHierarchy(int maxSize, BooleanSupplier cancelled) {
+        String key = "hierarchy/" + maxSize;
+        Feature feature = features.get(key);
+        if (feature != null) {
+            return (ColorHierarchy) feature.value;
+        }
+        long startTime = System.currentTimeMillis();
+        ColorHierarchy hierarchy = ColorHierarchy.build(rgb(maxSize), cancelled);
+        features.put(key, new Feature(hierarchy, (int) (hierarchy.getByteCount() / 1024) + 1));
+        Log.d(TAG, "Color hierarchy built in " + (System.currentTimeMillis() - startTime) + "ms");
+        return hierarchy;
+    }
+
+    private static Mat resize(Bitmap bitmap, int maxSize) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        Bitmap resized = bitmap;
+        if (Math.max(width, height) > maxSize) {
+            float scale = (float) maxSize / Math.max(width, height);
+            int newWidth = (int) (width * scale);
+            int newHeight = (int) (height * scale);
+            resized = Bitmap.createScaledBitmap(bitmap, newWidth, newHeight, false);
+        }
+
+        Mat mat = new Mat();
+        Utils.bitmapToMat(resized, mat);
+        Imgproc.cvtColor(mat, mat, Imgproc.COLOR_RGBA2RGB);
+
+        if (resized != bitmap) {
+            resized.recycle();
+        }
+
+        return mat;
+    }
+}
@@ -1,7 +1,5 @@
 package com.example.miminor.segmentation;
 
-import android.graphics.Bitmap;
-import android.graphics.Point;
 import android.graphics.Rect;
 
 import com.example.miminor.utils.ColorInfo;
@@ -13,12 +11,13 @@ import java.util.List;
 public class ImageSegment {
     private final int id;
     private final Rect bounds;
-    private final Bitmap mask;
+    private final SegmentMask mask;
     private final ColorInfo dominantColor;
     private final float confidence;
-    private List<Point> contour;
+    private PackedContour contour;
+    private List<ColorInfo> secondaryColors;
 
-    public ImageSegment(int id, Rect bounds, Bitmap mask, ColorInfo dominantColor, float confidence) {
+    public ImageSegment(int id, Rect bounds, SegmentMask mask, ColorInfo dominantColor, float confidence) {
         this.id = id;
         this.bounds = bounds;
         this.mask = mask;
@@ -26,8 +25,15 @@ public class ImageSegment {
         this.confidence = confidence;
     }
     
-    public void setContourPoints(List<Point> contourPoints) {
-        this.contour = contourPoints;
+    /**
+     * Контур сегмента в координатах исходного изображения
+     */
+    public void setContour(PackedContour contour) {
+        this.contour = contour;
+    }
+
+    public void setSecondaryColors(List<ColorInfo> secondaryColors) {
+        this.secondaryColors = secondaryColors;
     }
 
     public int getId() {
@@ -38,7 +44,10 @@ public class ImageSegment {
         return bounds;
     }
 
-    public Bitmap getMask() {
+    /**
+     * Точная форма сегмента или null, если сегмент — его рамка
+     */
+    public SegmentMask getMask() {
         return mask;
     }
 
@@ -50,29 +59,48 @@ public class ImageSegment {
         return confidence;
     }
 
-    public List<Point> getContour() {
-        return contour != null ? contour : new ArrayList<>();
+    public PackedContour getContour() {
+        return contour != null ? contour : PackedContour.EMPTY;
+    }
+
+    /**
+     * Дополнительные заметные цвета сегмента (по убыванию доли), без доминантного
+     */
+    public List<ColorInfo> getSecondaryColors() {
+        return secondaryColors != null ? secondaryColors : new ArrayList<>();
     }
 
+    /**
+     * Попадание точки в сегмент: по маске, если она есть, иначе по контуру, иначе по рамке
+     */
     public boolean containsPoint(int x, int y) {
-        return bounds.contains(x, y);
+        if (!bounds.contains(x, y)) {
+            return false;
+        }
+        if (mask != null) {
+            return mask.contains(x, y);
+        }
+        return contour == null || contour.size() < 3 || contour.contains(x, y);
     }
 
     public int getArea() {
-        if (mask == null) {
-            return bounds.width() * bounds.height();
-        }
+        return mask != null ? mask.getArea() : bounds.width() * bounds.height();
+    }
 
-        int area = 0;
-        for (int y = 0; y < mask.getHeight(); y++) {
-            for (int x = 0; x < mask.getWidth(); x++) {
-                int pixel = mask.getPixel(x, y);
-                if (android.graphics.Color.alpha(pixel) > 128) {
-                    area++;
-                }
-            }
-        }
-        return area;
+    public float getCentroidX() {
+        return mask != null && !mask.isEmpty() ? mask.getCentroidX() : bounds.exactCenterX();
+    }
+
+    public float getCentroidY() {
+        return mask != null && !mask.isEmpty() ? mask.getCentroidY() : bounds.exactCenterY();
+    }
+
+    /**
+     * Примерный объем маски и контура в байтах
+     */
+    public int getByteCount() {
+        int bytes = contour != null ? contour.size() * 8 : 0;
+        return mask != null ? bytes + mask.getByteCount() : bytes;
     }
 
     @Override
@@ -0,0 +1,243 @@
+package com.example.miminor.segmentation;
+
+import java.util.Arrays;
+
+/**
+ * Дерево компонент (max-tree) 8-битного изображения.
+ *
+ * Узлы — связные компоненты (8-связность) верхних множеств {gray > t} для всех t сразу.
+ * Строится объединением множеств (Berger et al., 2007): пиксели обрабатываются по убыванию
+ * яркости после сортировки подсчетом, каждый присоединяет к себе уже обработанных соседей.
+ * Каноническим пикселем узла считается последний обработанный пиксель с уровнем узла;
+ * у остальных пикселей parent указывает на канонический пиксель их узла.
+ *
+ * Площадь и рамка каждого узла накапливаются за один проход от листьев к корню, поэтому
+ * компоненты на любом наборе порогов получаются без повторной обработки изображения.
+ */
+public class MaxTree {
+    public final int width;
+    public final int height;
+
+    private final byte[] gray;
+    /** Родитель пикселя; у корня — он сам */
+    private final int[] parent;
+    /** Пиксели по убыванию яркости: дети раньше родителей */
+    private final int[] order;
+    private final int root;
+
+    private final int[] area;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+
+    private MaxTree(byte[] gray, int width, int height) {
+        this.gray = gray;
+        this.width = width;
+        this.height = height;
+        int n = width * height;
+        parent = new int[n];
+        order = new int[n];
+        area = new int[n];
+        minX = new int[n];
+        minY = new int[n];
+        maxX = new int[n];
+        maxY = new int[n];
+
+        sortDescending();
+        union();
+        root = order[n - 1];
+        canonicalize();
+        accumulate();
+    }
+
+    /**
+     * @param gray яркость построчно, width * height
+     */
+    public static MaxTree build(byte[] gray, int width, int height) {
+        return new MaxTree(gray, width, height);
+    }
+
+    private int level(int p) {
+        return gray[p] & 0xFF;
+    }
+
+    private void sortDescending() {
+        int[] start = new int[257];
+        for (byte value : gray) {
+            start[256 - (value & 0xFF)]++;
+        }
+        for (int v = 0; v < 256; v++) {
+            start[v + 1] += start[v];
+        }
+        for (int p = 0; p < gray.length; p++) {
+            order[start[255 - level(p)]++] = p;
+        }
+    }
+
+    private void union() {
+        int n = gray.length;
+        int[] zpar = new int[n];
+        Arrays.fill(zpar, -1);
+
+        for (int k = 0; k < n; k++) {
+            int p = order[k];
+            parent[p] = p;
+            zpar[p] = p;
+            int x = p % width;
+            int y = p / width;
+
+            for (int dy = -1; dy <= 1; dy++) {
+                int ny = y + dy;
+                if (ny < 0 || ny >= height) continue;
+                for (int dx = -1; dx <= 1; dx++) {
+                    int nx = x + dx;
+                    if ((dx == 0 && dy == 0) || nx < 0 || nx >= width) continue;
+                    int q = ny * width + nx;
+                    if (zpar[q] < 0) continue;
+
+                    int r = find(zpar, q);
+                    if (r != p) {
+                        parent[r] = p;
+                        zpar[r] = p;
+                    }
+                }
+            }
+        }
+    }
+
+    private static int find(int[] zpar, int p) {
+        int r = p;
+        while (zpar[r] != r) {
+            r = zpar[r];
+        }
+        while (zpar[p] != r) {
+            int next = zpar[p];
+            zpar[p] = r;
+            p = next;
+        }
+        return r;
+    }
+
+    /**
+     * Родитель каждого пикселя переводится на канонический пиксель узла
+     */
+    private void canonicalize() {
+        for (int k = order.length - 1; k >= 0; k--) {
+            int p = order[k];
+            int q = parent[p];
+            if (level(parent[q]) == level(q)) {
+                parent[p] = parent[q];
+            }
+        }
+    }
+
+    private void accumulate() {
+        for (int p = 0; p < gray.length; p++) {
+            area[p] = 1;
+            minX[p] = maxX[p] = p % width;
+            minY[p] = maxY[p] = p / width;
+        }
+        for (int k = 0; k < order.length; k++) {
+            int p = order[k];
+            if (p == root) continue;
+            int q = parent[p];
+            area[q] += area[p];
+            if (minX[p] < minX[q]) minX[q] = minX[p];
+            if (maxX[p] > maxX[q]) maxX[q] = maxX[p];
+            if (minY[p] < minY[q]) minY[q] = minY[p];
+            if (maxY[p] > maxY[q]) maxY[q] = maxY[p];
+        }
+    }
+
+    /**
+     * Канонический ли пиксель p, то есть представляет ли он узел
+     */
+    public boolean isNode(int p) {
+        return p == root || level(parent[p]) != level(p);
+    }
+
+    /**
+     * Узлы, которые являются компонентой {gray > t} хотя бы для одного порога t из thresholds.
+     * Компонента, одинаковая для нескольких порогов, возвращается один раз.
+     */
+    public int[] components(int[] thresholds, int minArea) {
+        int[] sorted = thresholds.clone();
+        Arrays.sort(sorted);
+
+        int[] result = new int[16];
+        int count = 0;
+        for (int p = 0; p < gray.length; p++) {
+            if (area[p] < minArea || !isNode(p)) continue;
+
+            // Узел — компонента для порогов t: уровень родителя <= t < уровень узла
+            int low = p == root ? -1 : level(parent[p]);
+            int high = level(p);
+            int i = Arrays.binarySearch(sorted, low);
+            int candidate = i >= 0 ? i : -i - 1;
+            if (candidate < sorted.length && sorted[candidate] < high) {
+                if (count == result.length) {
+                    result = Arrays.copyOf(result, count * 2);
+                }
+                result[count++] = p;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    public int getArea(int node) {
+        return area[node];
+    }
+
+    public int getLevel(int node) {
+        return level(node);
+    }
+
+    public org.opencv.core.Rect getBounds(int node) {
+        return new org.opencv.core.Rect(minX[node], minY[node],
+                maxX[node] - minX[node] + 1, maxY[node] - minY[node] + 1);
+    }
+
+    /**
+     * Маски узлов в их рамках (см. {@link #getBounds(int)}), 1 внутри компоненты.
+     * Один проход по пикселям: каждый пиксель записывается во все выбранные узлы-предки.
+     */
+    public byte[][] masks(int[] nodes) {
+        int n = gray.length;
+        byte[][] masks = new byte[nodes.length][];
+        // Ближайший выбранный предок-или-сам для каждого пикселя и цепочка выбранных предков
+        int[] selected = new int[n];
+        Arrays.fill(selected, -1);
+        for (int i = 0; i < nodes.length; i++) {
+            selected[nodes[i]] = i;
+            org.opencv.core.Rect r = getBounds(nodes[i]);
+            masks[i] = new byte[r.width * r.height];
+        }
+
+        int[] nearest = new int[n];
+        int[] selectedParent = new int[nodes.length];
+        Arrays.fill(selectedParent, -1);
+        // От корня к листьям: родитель обработан раньше ребенка
+        for (int k = n - 1; k >= 0; k--) {
+            int p = order[k];
+            int inherited = p == root ? -1 : nearest[parent[p]];
+            if (isNode(p) && selected[p] >= 0) {
+                selectedParent[selected[p]] = inherited;
+                nearest[p] = selected[p];
+            } else {
+                nearest[p] = inherited;
+            }
+        }
+
+        for (int p = 0; p < n; p++) {
+            int x = p % width;
+            int y = p / width;
+            for (int s = nearest[p]; s >= 0; s = selectedParent[s]) {
+                int node = nodes[s];
+                int w = maxX[node] - minX[node] + 1;
+                masks[s][(y - minY[node]) * w + (x - minX[node])] = 1;
+            }
+        }
+        return masks;
+    }
+}
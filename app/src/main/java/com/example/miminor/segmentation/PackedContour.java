@@ -0,0 +1,263 @@
+package com.example.miminor.segmentation;
+
+import org.opencv.core.MatOfPoint;
+
+import java.util.Arrays;
+
+/**
+ * Замкнутый контур в упакованном виде: координаты вершин подряд в одном int[] (x0, y0, x1, y1, ...)
+ * и рамка. Неизменяем.
+ *
+ * Получается из MatOfPoint одним копированием без промежуточных объектов Point. Для отрисовки
+ * контур упрощается алгоритмом Дугласа-Пекера с допуском, который зависит от масштаба экрана;
+ * результат последнего упрощения запоминается, так что при неизменном масштабе оно выполняется
+ * один раз.
+ */
+public final class PackedContour {
+    public static final PackedContour EMPTY = new PackedContour(new int[0], 0);
+
+    private final int[] xy;
+    /** Допуск, с которым контур получен упрощением; 0 у исходного */
+    private final float tolerance;
+
+    public final int minX;
+    public final int minY;
+    public final int maxX;
+    public final int maxY;
+
+    private volatile PackedContour simplified;
+
+    private PackedContour(int[] xy, float tolerance) {
+        this.xy = xy;
+        this.tolerance = tolerance;
+
+        int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE;
+        int x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+        for (int i = 0; i < xy.length; i += 2) {
+            if (xy[i] < x0) x0 = xy[i];
+            if (xy[i] > x1) x1 = xy[i];
+            if (xy[i + 1] < y0) y0 = xy[i + 1];
+            if (xy[i + 1] > y1) y1 = xy[i + 1];
+        }
+        boolean empty = xy.length == 0;
+        minX = empty ? 0 : x0;
+        minY = empty ? 0 : y0;
+        maxX = empty ? 0 : x1;
+        maxY = empty ? 0 : y1;
+    }
+
+    /**
+     * @param contour контур из findContours (CV_32SC2)
+     */
+    public static PackedContour fromMat(MatOfPoint contour) {
+        int count = (int) contour.total();
+        if (count == 0) {
+            return EMPTY;
+        }
+        int[] xy = new int[2 * count];
+        contour.get(0, 0, xy);
+        return new PackedContour(xy, 0);
+    }
+
+    /**
+     * @param xy координаты вершин подряд (x0, y0, x1, y1, ...)
+     */
+    static PackedContour fromPoints(int... xy) {
+        if (xy.length == 0) {
+            return EMPTY;
+        }
+        return new PackedContour(xy.clone(), 0);
+    }
+
+    public int size() {
+        return xy.length / 2;
+    }
+
+    public boolean isEmpty() {
+        return xy.length == 0;
+    }
+
+    public int getX(int i) {
+        return xy[2 * i];
+    }
+
+    public int getY(int i) {
+        return xy[2 * i + 1];
+    }
+
+    /**
+     * Рамка вершин: ширина и высота включают крайние вершины
+     */
+    public org.opencv.core.Rect getBounds() {
+        return new org.opencv.core.Rect(minX, minY, maxX - minX + 1, maxY - minY + 1);
+    }
+
+    /**
+     * Пересечения строки y с ребрами контура, по возрастанию x. Как и в OpenCV, целые
+     * координаты вершин — центры пикселей; пиксели строки между парами пересечений
+     * лежат внутри по правилу чет-нечет.
+     * @param crossings буфер размером не меньше {@link #size()}
+     * @return число пересечений (четное)
+     */
+    public int rowCrossings(int y, double[] crossings) {
+        int n = size();
+        int count = 0;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            int ax = getX(i), ay = getY(i);
+            int bx = getX(j), by = getY(j);
+            if ((ay <= y) != (by <= y)) {
+                crossings[count++] = ax + (double) (y - ay) * (bx - ax) / (by - ay);
+            }
+        }
+        Arrays.sort(crossings, 0, count);
+        return count;
+    }
+
+    /**
+     * Лежит ли пиксель (x, y) внутри контура; та же заливка, что и по {@link #rowCrossings}
+     */
+    public boolean contains(int x, int y) {
+        if (size() < 3 || x < minX || x > maxX || y < minY || y > maxY) {
+            return false;
+        }
+        int n = size();
+        boolean inside = false;
+        for (int i = 0, j = n - 1; i < n; j = i++) {
+            int ax = getX(i), ay = getY(i);
+            int bx = getX(j), by = getY(j);
+            if ((ay <= y) != (by <= y)) {
+                double crossing = ax + (double) (y - ay) * (bx - ax) / (by - ay);
+                if (crossing == x) {
+                    // Пиксель на ребре — конец отрезка заливки
+                    return true;
+                }
+                if (crossing < x) {
+                    inside = !inside;
+                }
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Контур с координатами, умноженными на масштаб и отброшенной дробной частью.
+     * Вершины, совпавшие после округления с предыдущей, пропускаются.
+     */
+    public PackedContour scaled(float scaleX, float scaleY) {
+        if (isEmpty()) {
+            return this;
+        }
+        int[] result = new int[xy.length];
+        int count = 0;
+        for (int i = 0; i < xy.length; i += 2) {
+            int x = (int) (xy[i] * scaleX);
+            int y = (int) (xy[i + 1] * scaleY);
+            if (count > 0 && result[count - 2] == x && result[count - 1] == y) {
+                continue;
+            }
+            result[count++] = x;
+            result[count++] = y;
+        }
+        return new PackedContour(count == result.length ? result : Arrays.copyOf(result, count), 0);
+    }
+
+    /**
+     * Упрощение Дугласа-Пекера: каждая отброшенная вершина лежит не дальше tolerance
+     * от отрезка упрощенного контура. Результат для последнего допуска кешируется.
+     * @param tolerance допуск в единицах координат контура
+     */
+    public PackedContour simplify(float tolerance) {
+        if (tolerance <= 0 || size() <= 3) {
+            return this;
+        }
+        PackedContour cached = simplified;
+        if (cached != null && cached.tolerance == tolerance) {
+            return cached;
+        }
+        cached = new PackedContour(douglasPeucker(tolerance), tolerance);
+        simplified = cached;
+        return cached;
+    }
+
+    private int[] douglasPeucker(float tolerance) {
+        int n = size();
+        double limit = (double) tolerance * tolerance;
+        boolean[] keep = new boolean[n];
+
+        // Замкнутый контур делится на две ломаные: от вершины 0 до самой дальней от нее
+        // и обратно (индекс n обозначает вершину 0)
+        int far = 0;
+        long farDistance = -1;
+        for (int i = 1; i < n; i++) {
+            long dx = getX(i) - getX(0);
+            long dy = getY(i) - getY(0);
+            long d = dx * dx + dy * dy;
+            if (d > farDistance) {
+                farDistance = d;
+                far = i;
+            }
+        }
+        keep[0] = true;
+        keep[far] = true;
+
+        int[] stack = new int[2 * n + 4];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = far;
+        stack[top++] = far;
+        stack[top++] = n;
+
+        while (top > 0) {
+            int end = stack[--top];
+            int start = stack[--top];
+            if (end - start < 2) {
+                continue;
+            }
+
+            int ax = getX(start), ay = getY(start);
+            int bx = getX(end % n), by = getY(end % n);
+            long ex = bx - ax;
+            long ey = by - ay;
+            double length = ex * ex + ey * ey;
+
+            int worst = -1;
+            double worstDistance = limit;
+            for (int i = start + 1; i < end; i++) {
+                long px = getX(i) - ax;
+                long py = getY(i) - ay;
+                double d;
+                if (length == 0) {
+                    d = px * px + py * py;
+                } else {
+                    double cross = ex * py - ey * px;
+                    d = cross * cross / length;
+                }
+                if (d > worstDistance) {
+                    worstDistance = d;
+                    worst = i;
+                }
+            }
+
+            if (worst >= 0) {
+                keep[worst] = true;
+                stack[top++] = start;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = end;
+            }
+        }
+
+        int kept = 0;
+        for (boolean k : keep) {
+            if (k) kept++;
+        }
+        int[] result = new int[2 * kept];
+        for (int i = 0, j = 0; i < n; i++) {
+            if (keep[i]) {
+                result[j++] = getX(i);
+                result[j++] = getY(i);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,392 @@
+package com.example.miminor.segmentation;
+
+import com.example.miminor.utils.OklabImage;
+
+import java.util.Arrays;
+
+/**
+ * Граф смежности регионов над картой меток и жадная иерархическая склейка.
+ *
+ * Строится за один проход по меткам: для узлов — площадь, суммы OKLAB (моменты первого
+ * порядка) и рамка, для ребер — длина общей границы в парах пикселей (4-связность).
+ * Склейка берет из индексированной кучи ребро с наименьшим ΔOKLAB между средними
+ * цветами, объединяет его концы и обновляет веса ребер объединенного узла, пока
+ * не будет достигнут порог ΔE или целевое число регионов.
+ *
+ * Все данные в примитивных массивах: списки ребер узлов — int[] с длинами,
+ * куча — массив id ребер с обратным индексом позиций.
+ */
+public class RegionAdjacencyGraph {
+    private final int nodeCount;
+    private final int[] parent;
+    private final int[] area;
+    private final double[] sumL;
+    private final double[] sumA;
+    private final double[] sumB;
+    private final int[] minX;
+    private final int[] minY;
+    private final int[] maxX;
+    private final int[] maxY;
+
+    /** id ребер каждого узла; актуальны только у корней */
+    private final int[][] nodeEdges;
+    private final int[] degree;
+
+    private int edgeCount;
+    private int[] edgeU = new int[64];
+    private int[] edgeV = new int[64];
+    private int[] boundary = new int[64];
+    private float[] weight = new float[64];
+
+    private int[] heap;
+    private int[] heapPos;
+    private int heapSize;
+
+    private int regionCount;
+
+    private RegionAdjacencyGraph(int nodeCount) {
+        this.nodeCount = nodeCount;
+        this.regionCount = nodeCount;
+        parent = new int[nodeCount];
+        area = new int[nodeCount];
+        sumL = new double[nodeCount];
+        sumA = new double[nodeCount];
+        sumB = new double[nodeCount];
+        minX = new int[nodeCount];
+        minY = new int[nodeCount];
+        maxX = new int[nodeCount];
+        maxY = new int[nodeCount];
+        nodeEdges = new int[nodeCount][];
+        degree = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            parent[i] = i;
+        }
+        Arrays.fill(minX, Integer.MAX_VALUE);
+        Arrays.fill(minY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param labels метки 0..count-1 построчно; отрицательные пиксели не входят ни в один узел
+     * @param image  цвета тех же пикселей
+     */
+    public static RegionAdjacencyGraph build(int[] labels, int width, int height, int count, OklabImage image) {
+        RegionAdjacencyGraph graph = new RegionAdjacencyGraph(count);
+
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int p = row + x;
+                int label = labels[p];
+                if (label < 0) {
+                    continue;
+                }
+
+                graph.area[label]++;
+                graph.sumL[label] += image.L[p];
+                graph.sumA[label] += image.a[p];
+                graph.sumB[label] += image.b[p];
+                if (x < graph.minX[label]) graph.minX[label] = x;
+                if (x > graph.maxX[label]) graph.maxX[label] = x;
+                if (y < graph.minY[label]) graph.minY[label] = y;
+                if (y > graph.maxY[label]) graph.maxY[label] = y;
+
+                if (x + 1 < width) {
+                    int right = labels[p + 1];
+                    if (right >= 0 && right != label) {
+                        graph.addBoundary(label, right);
+                    }
+                }
+                if (y + 1 < height) {
+                    int below = labels[p + width];
+                    if (below >= 0 && below != label) {
+                        graph.addBoundary(label, below);
+                    }
+                }
+            }
+        }
+
+        graph.heap = new int[graph.edgeCount];
+        graph.heapPos = new int[graph.edgeCount];
+        for (int e = 0; e < graph.edgeCount; e++) {
+            graph.weight[e] = graph.distance(graph.edgeU[e], graph.edgeV[e]);
+            graph.heap[e] = e;
+            graph.heapPos[e] = e;
+        }
+        graph.heapSize = graph.edgeCount;
+        for (int i = graph.heapSize / 2 - 1; i >= 0; i--) {
+            graph.siftDown(i);
+        }
+        return graph;
+    }
+
+    private void addBoundary(int u, int v) {
+        int e = findEdge(u, v);
+        if (e >= 0) {
+            boundary[e]++;
+            return;
+        }
+
+        if (edgeCount == edgeU.length) {
+            int capacity = edgeCount * 2;
+            edgeU = Arrays.copyOf(edgeU, capacity);
+            edgeV = Arrays.copyOf(edgeV, capacity);
+            boundary = Arrays.copyOf(boundary, capacity);
+            weight = Arrays.copyOf(weight, capacity);
+        }
+        e = edgeCount++;
+        edgeU[e] = u;
+        edgeV[e] = v;
+        boundary[e] = 1;
+        attach(u, e);
+        attach(v, e);
+    }
+
+    /**
+     * Ребро между узлами u и v или -1; просматривается более короткий список
+     */
+    private int findEdge(int u, int v) {
+        int node = degree[u] <= degree[v] ? u : v;
+        int[] edges = nodeEdges[node];
+        for (int k = 0; k < degree[node]; k++) {
+            int e = edges[k];
+            if ((edgeU[e] == u && edgeV[e] == v) || (edgeU[e] == v && edgeV[e] == u)) {
+                return e;
+            }
+        }
+        return -1;
+    }
+
+    private void attach(int node, int edge) {
+        int[] edges = nodeEdges[node];
+        if (edges == null) {
+            edges = new int[8];
+            nodeEdges[node] = edges;
+        } else if (degree[node] == edges.length) {
+            edges = Arrays.copyOf(edges, edges.length * 2);
+            nodeEdges[node] = edges;
+        }
+        edges[degree[node]++] = edge;
+    }
+
+    private void detach(int node, int edge) {
+        int[] edges = nodeEdges[node];
+        for (int k = 0; k < degree[node]; k++) {
+            if (edges[k] == edge) {
+                edges[k] = edges[--degree[node]];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Склеивает регионы, пока ближайшая пара соседей ближе maxDistance (ΔOKLAB между
+     * средними) и регионов больше minRegions. Можно вызывать повторно с большим порогом.
+     * @return число регионов после склейки
+     */
+    public int merge(float maxDistance, int minRegions) {
+        while (heapSize > 0 && regionCount > minRegions) {
+            int e = heap[0];
+            if (weight[e] >= maxDistance) {
+                break;
+            }
+            removeFromHeap(e);
+            union(edgeU[e], edgeV[e], e);
+        }
+        return regionCount;
+    }
+
+    private void union(int u, int v, int edge) {
+        // Узел с большим числом ребер поглощает другой: меньше переносов
+        int keep = degree[u] > degree[v] || (degree[u] == degree[v] && u < v) ? u : v;
+        int drop = keep == u ? v : u;
+
+        detach(keep, edge);
+        parent[drop] = keep;
+        area[keep] += area[drop];
+        sumL[keep] += sumL[drop];
+        sumA[keep] += sumA[drop];
+        sumB[keep] += sumB[drop];
+        minX[keep] = Math.min(minX[keep], minX[drop]);
+        minY[keep] = Math.min(minY[keep], minY[drop]);
+        maxX[keep] = Math.max(maxX[keep], maxX[drop]);
+        maxY[keep] = Math.max(maxY[keep], maxY[drop]);
+        regionCount--;
+
+        int[] dropEdges = nodeEdges[drop];
+        for (int k = 0; k < degree[drop]; k++) {
+            int e = dropEdges[k];
+            if (e == edge) {
+                continue;
+            }
+            int other = edgeU[e] == drop ? edgeV[e] : edgeU[e];
+            int existing = findEdge(keep, other);
+            if (existing >= 0) {
+                // Параллельное ребро: граница суммируется, дубликат удаляется
+                boundary[existing] += boundary[e];
+                removeFromHeap(e);
+                detach(other, e);
+            } else {
+                if (edgeU[e] == drop) {
+                    edgeU[e] = keep;
+                } else {
+                    edgeV[e] = keep;
+                }
+                attach(keep, e);
+            }
+        }
+        degree[drop] = 0;
+        nodeEdges[drop] = null;
+
+        // Средний цвет изменился: веса всех ребер узла пересчитываются
+        int[] keepEdges = nodeEdges[keep];
+        for (int k = 0; k < degree[keep]; k++) {
+            int e = keepEdges[k];
+            weight[e] = distance(edgeU[e], edgeV[e]);
+            int pos = heapPos[e];
+            if (pos >= 0) {
+                siftUp(pos);
+                siftDown(heapPos[e]);
+            }
+        }
+    }
+
+    private float distance(int u, int v) {
+        double nu = Math.max(1, area[u]);
+        double nv = Math.max(1, area[v]);
+        double dl = sumL[u] / nu - sumL[v] / nv;
+        double da = sumA[u] / nu - sumA[v] / nv;
+        double db = sumB[u] / nu - sumB[v] / nv;
+        return (float) Math.sqrt(dl * dl + da * da + db * db);
+    }
+
+    // ---------- indexed heap ----------
+
+    private boolean less(int e1, int e2) {
+        return weight[e1] < weight[e2] || (weight[e1] == weight[e2] && e1 < e2);
+    }
+
+    private void siftUp(int pos) {
+        int e = heap[pos];
+        while (pos > 0) {
+            int up = (pos - 1) >>> 1;
+            if (!less(e, heap[up])) {
+                break;
+            }
+            heap[pos] = heap[up];
+            heapPos[heap[pos]] = pos;
+            pos = up;
+        }
+        heap[pos] = e;
+        heapPos[e] = pos;
+    }
+
+    private void siftDown(int pos) {
+        int e = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && less(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!less(heap[child], e)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            heapPos[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = e;
+        heapPos[e] = pos;
+    }
+
+    private void removeFromHeap(int e) {
+        int pos = heapPos[e];
+        if (pos < 0) {
+            return;
+        }
+        heapPos[e] = -1;
+        heapSize--;
+        if (pos == heapSize) {
+            return;
+        }
+        int last = heap[heapSize];
+        heap[pos] = last;
+        heapPos[last] = pos;
+        siftUp(pos);
+        siftDown(heapPos[last]);
+    }
+
+    // ---------- results ----------
+
+    public int getRegionCount() {
+        return regionCount;
+    }
+
+    /**
+     * Корень региона, в который попал исходный узел
+     */
+    public int find(int node) {
+        int root = node;
+        while (parent[root] != root) {
+            root = parent[root];
+        }
+        while (parent[node] != root) {
+            int next = parent[node];
+            parent[node] = root;
+            node = next;
+        }
+        return root;
+    }
+
+    /**
+     * Номера регионов 0..getRegionCount()-1 для исходных узлов, по порядку корней
+     */
+    public int[] compactLabels() {
+        int[] index = new int[nodeCount];
+        Arrays.fill(index, -1);
+        int next = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            if (parent[i] == i) {
+                index[i] = next++;
+            }
+        }
+        int[] result = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            result[i] = index[find(i)];
+        }
+        return result;
+    }
+
+    // Статистика по корню региона (см. find)
+
+    public int getArea(int root) {
+        return area[root];
+    }
+
+    public float getMeanL(int root) {
+        return (float) (sumL[root] / Math.max(1, area[root]));
+    }
+
+    public float getMeanA(int root) {
+        return (float) (sumA[root] / Math.max(1, area[root]));
+    }
+
+    public float getMeanB(int root) {
+        return (float) (sumB[root] / Math.max(1, area[root]));
+    }
+
+    public org.opencv.core.Rect getBounds(int root) {
+        return new org.opencv.core.Rect(minX[root], minY[root],
+                maxX[root] - minX[root] + 1, maxY[root] - minY[root] + 1);
+    }
+
+    /**
+     * Длина общей границы двух регионов в парах пикселей, 0 если они не соседи
+     */
+    public int getBoundaryLength(int root1, int root2) {
+        int e = findEdge(root1, root2);
+        return e >= 0 ? boundary[e] : 0;
+    }
+}
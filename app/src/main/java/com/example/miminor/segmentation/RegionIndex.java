@@ -0,0 +1,253 @@
+package com.example.miminor.segmentation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Пространственный индекс рамок регионов для дедупликации, поиска вложенных рамок и NMS.
+ *
+ * Равномерная сетка над областью изображения: рамка записывается во все ячейки, которые
+ * покрывает, поэтому запрос просматривает только рамки из ячеек запроса. Рамки добавляются
+ * и удаляются по целочисленному id (плотные, от 0). Координаты вне области прижимаются
+ * к крайним ячейкам, так что ответы остаются точными. Не потокобезопасен.
+ */
+public class RegionIndex {
+    private static final int MIN_CELL_SIZE = 8;
+
+    private final int originX;
+    private final int originY;
+    private final int cellSize;
+    private final int cols;
+    private final int rows;
+
+    private final int[][] cells;
+    private final int[] cellSizes;
+
+    private org.opencv.core.Rect[] rects = new org.opencv.core.Rect[16];
+    /** Отметки последнего запроса, чтобы рамка из нескольких ячеек попала в ответ один раз */
+    private int[] seen = new int[16];
+    private int[] buffer = new int[16];
+    private int query;
+    private int size;
+
+    /**
+     * @param bounds   область, в которой ожидаются рамки
+     * @param cellSize сторона ячейки; разумно брать порядка типичной стороны рамки
+     */
+    public RegionIndex(org.opencv.core.Rect bounds, int cellSize) {
+        this.originX = bounds.x;
+        this.originY = bounds.y;
+        this.cellSize = Math.max(MIN_CELL_SIZE, cellSize);
+        this.cols = Math.max(1, (bounds.width + this.cellSize - 1) / this.cellSize);
+        this.rows = Math.max(1, (bounds.height + this.cellSize - 1) / this.cellSize);
+        this.cells = new int[cols * rows][];
+        this.cellSizes = new int[cols * rows];
+        Arrays.fill(seen, -1);
+    }
+
+    /**
+     * Индекс по списку рамок с id, равными их позициям в списке. Область — общая рамка
+     * списка, ячейка — средняя сторона рамки.
+     */
+    public static RegionIndex build(List<org.opencv.core.Rect> rects) {
+        RegionIndex index = new RegionIndex(extent(rects), meanSide(rects));
+        for (int i = 0; i < rects.size(); i++) {
+            index.insert(i, rects.get(i));
+        }
+        return index;
+    }
+
+    public static org.opencv.core.Rect extent(List<org.opencv.core.Rect> rects) {
+        if (rects.isEmpty()) {
+            return new org.opencv.core.Rect(0, 0, 1, 1);
+        }
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (org.opencv.core.Rect r : rects) {
+            minX = Math.min(minX, r.x);
+            minY = Math.min(minY, r.y);
+            maxX = Math.max(maxX, r.x + r.width);
+            maxY = Math.max(maxY, r.y + r.height);
+        }
+        return new org.opencv.core.Rect(minX, minY, Math.max(1, maxX - minX), Math.max(1, maxY - minY));
+    }
+
+    public static int meanSide(List<org.opencv.core.Rect> rects) {
+        long sum = 0;
+        for (org.opencv.core.Rect r : rects) {
+            sum += r.width + r.height;
+        }
+        return (int) (sum / Math.max(1, 2L * rects.size()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(int id) {
+        return id < rects.length && rects[id] != null;
+    }
+
+    public void insert(int id, org.opencv.core.Rect rect) {
+        if (id >= rects.length) {
+            int capacity = Math.max(id + 1, rects.length * 2);
+            rects = Arrays.copyOf(rects, capacity);
+            int oldLength = seen.length;
+            seen = Arrays.copyOf(seen, capacity);
+            Arrays.fill(seen, oldLength, capacity, -1);
+        }
+        if (rects[id] != null) {
+            remove(id);
+        }
+        rects[id] = rect;
+        size++;
+
+        int x1 = cellX(rect.x + rect.width - 1);
+        int y1 = cellY(rect.y + rect.height - 1);
+        for (int cy = cellY(rect.y); cy <= y1; cy++) {
+            for (int cx = cellX(rect.x); cx <= x1; cx++) {
+                int cell = cy * cols + cx;
+                int[] items = cells[cell];
+                if (items == null) {
+                    items = new int[4];
+                    cells[cell] = items;
+                } else if (cellSizes[cell] == items.length) {
+                    items = Arrays.copyOf(items, items.length * 2);
+                    cells[cell] = items;
+                }
+                items[cellSizes[cell]++] = id;
+            }
+        }
+    }
+
+    public void remove(int id) {
+        if (!contains(id)) {
+            return;
+        }
+        org.opencv.core.Rect rect = rects[id];
+        rects[id] = null;
+        size--;
+
+        int x1 = cellX(rect.x + rect.width - 1);
+        int y1 = cellY(rect.y + rect.height - 1);
+        for (int cy = cellY(rect.y); cy <= y1; cy++) {
+            for (int cx = cellX(rect.x); cx <= x1; cx++) {
+                int cell = cy * cols + cx;
+                int[] items = cells[cell];
+                int count = cellSizes[cell];
+                for (int k = 0; k < count; k++) {
+                    if (items[k] == id) {
+                        items[k] = items[--count];
+                        break;
+                    }
+                }
+                cellSizes[cell] = count;
+            }
+        }
+    }
+
+    /**
+     * Записывает в out id рамок, пересекающихся с rect по ненулевой площади; если rect сама
+     * лежит в индексе, ее id тоже попадет в ответ. Размер out — не меньше {@link #size()}.
+     * @return число найденных рамок
+     */
+    public int overlapping(org.opencv.core.Rect rect, int[] out) {
+        int mark = query++;
+        int found = 0;
+        int x1 = cellX(rect.x + rect.width - 1);
+        int y1 = cellY(rect.y + rect.height - 1);
+        for (int cy = cellY(rect.y); cy <= y1; cy++) {
+            for (int cx = cellX(rect.x); cx <= x1; cx++) {
+                int cell = cy * cols + cx;
+                int[] items = cells[cell];
+                for (int k = 0; k < cellSizes[cell]; k++) {
+                    int id = items[k];
+                    if (seen[id] == mark) {
+                        continue;
+                    }
+                    seen[id] = mark;
+                    org.opencv.core.Rect other = rects[id];
+                    if (intersects(rect, other)) {
+                        out[found++] = id;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Есть ли в индексе рамка с IoU больше порога. Порог должен быть положительным:
+     * такие рамки обязательно пересекаются
+     */
+    public boolean anyWithIoUAbove(org.opencv.core.Rect rect, double threshold) {
+        if (buffer.length < size) {
+            buffer = new int[rects.length];
+        }
+        int found = overlapping(rect, buffer);
+        for (int k = 0; k < found; k++) {
+            if (iou(rect, rects[buffer[k]]) > threshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Записывает в out id рамок, лежащих внутри outer с отступом tol от каждой стороны
+     * @return число найденных рамок
+     */
+    public int containedIn(org.opencv.core.Rect outer, double tol, int[] out) {
+        int found = overlapping(outer, out);
+        int kept = 0;
+        for (int k = 0; k < found; k++) {
+            if (isInside(rects[out[k]], outer, tol)) {
+                out[kept++] = out[k];
+            }
+        }
+        return kept;
+    }
+
+    public org.opencv.core.Rect get(int id) {
+        return rects[id];
+    }
+
+    private int cellX(int x) {
+        return Math.min(cols - 1, Math.max(0, (x - originX) / cellSize));
+    }
+
+    private int cellY(int y) {
+        return Math.min(rows - 1, Math.max(0, (y - originY) / cellSize));
+    }
+
+    // ---------- geometry helpers ----------
+
+    public static boolean intersects(org.opencv.core.Rect r1, org.opencv.core.Rect r2) {
+        return r1.x < r2.x + r2.width && r2.x < r1.x + r1.width
+                && r1.y < r2.y + r2.height && r2.y < r1.y + r1.height;
+    }
+
+    public static boolean isInside(org.opencv.core.Rect inner, org.opencv.core.Rect outer, double tol) {
+        return inner.x >= outer.x + tol &&
+                inner.y >= outer.y + tol &&
+                inner.x + inner.width <= outer.x + outer.width - tol &&
+                inner.y + inner.height <= outer.y + outer.height - tol;
+    }
+
+    public static double iou(org.opencv.core.Rect r1, org.opencv.core.Rect r2) {
+        int x1 = Math.max(r1.x, r2.x);
+        int y1 = Math.max(r1.y, r2.y);
+        int x2 = Math.min(r1.x + r1.width, r2.x + r2.width);
+        int y2 = Math.min(r1.y + r1.height, r2.y + r2.height);
+
+        int interW = Math.max(0, x2 - x1);
+        int interH = Math.max(0, y2 - y1);
+        double interArea = interW * interH;
+
+        double area1 = r1.width * r1.height;
+        double area2 = r2.width * r2.height;
+        double unionArea = area1 + area2 - interArea;
+        if (unionArea <= 0) return 0.0;
+        return interArea / unionArea;
+    }
+}
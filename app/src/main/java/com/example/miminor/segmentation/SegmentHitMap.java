@@ -0,0 +1,158 @@
+package com.example.miminor.segmentation;
+
+import android.graphics.Rect;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Поиск сегмента по точке касания за постоянное время.
+ *
+ * Грубая сетка short[] над общей рамкой сегментов: ячейка хранит индекс сегмента, который
+ * является ответом для любой ее точки, или AMBIGUOUS, если ответ внутри ячейки меняется
+ * (граница сегмента). Сегменты накладываются по порядку, более поздние сверху, как и в
+ * {@link SegmentationResult#findSegmentAt}: ячейка, полностью покрытая сегментом, получает
+ * его индекс, частично покрытая становится неоднозначной. Для неоднозначных ячеек
+ * кандидаты берутся из индекса рамок и проверяются точно (маска, контур или рамка).
+ */
+public class SegmentHitMap {
+    /** Сторона сетки по длинной стороне области, ячеек */
+    private static final int GRID_SIZE = 256;
+    private static final int MIN_CELL_SIZE = 4;
+
+    private static final short NONE = -1;
+    private static final short AMBIGUOUS = -2;
+
+    private final List<ImageSegment> segments;
+    private final int originX;
+    private final int originY;
+    private final int right;
+    private final int bottom;
+    private final int cellSize;
+    private final int cols;
+    private final int rows;
+    private final short[] cells;
+
+    private final RegionIndex index;
+    private final int[] candidates;
+
+    private SegmentHitMap(List<ImageSegment> segments, Rect extent) {
+        this.segments = segments;
+        this.originX = extent.left;
+        this.originY = extent.top;
+        this.right = extent.right;
+        this.bottom = extent.bottom;
+        int side = Math.max(extent.width(), extent.height());
+        this.cellSize = Math.max(MIN_CELL_SIZE, (side + GRID_SIZE - 1) / GRID_SIZE);
+        this.cols = (extent.width() + cellSize - 1) / cellSize;
+        this.rows = (extent.height() + cellSize - 1) / cellSize;
+        this.cells = new short[cols * rows];
+        Arrays.fill(cells, NONE);
+
+        org.opencv.core.Rect area = new org.opencv.core.Rect(originX, originY, extent.width(), extent.height());
+        this.index = new RegionIndex(area, cellSize * 4);
+        this.candidates = new int[segments.size()];
+
+        for (int i = 0; i < segments.size(); i++) {
+            Rect b = segments.get(i).getBounds();
+            index.insert(i, new org.opencv.core.Rect(b.left, b.top, b.width(), b.height()));
+            paint(i);
+        }
+    }
+
+    /**
+     * @return null, если сегментов нет или их больше, чем помещается в short
+     */
+    public static SegmentHitMap build(List<ImageSegment> segments) {
+        if (segments.isEmpty() || segments.size() > Short.MAX_VALUE) {
+            return null;
+        }
+        Rect extent = null;
+        for (ImageSegment segment : segments) {
+            Rect b = segment.getBounds();
+            if (b.isEmpty()) {
+                continue;
+            }
+            if (extent == null) {
+                extent = new Rect(b);
+            } else {
+                extent.set(Math.min(extent.left, b.left), Math.min(extent.top, b.top),
+                        Math.max(extent.right, b.right), Math.max(extent.bottom, b.bottom));
+            }
+        }
+        return extent != null ? new SegmentHitMap(segments, extent) : null;
+    }
+
+    private void paint(int id) {
+        ImageSegment segment = segments.get(id);
+        Rect b = segment.getBounds();
+        if (b.isEmpty()) {
+            return;
+        }
+        SegmentMask mask = segment.getMask();
+        boolean shaped = mask != null || segment.getContour().size() >= 3;
+
+        int gx0 = (b.left - originX) / cellSize;
+        int gy0 = (b.top - originY) / cellSize;
+        int gx1 = (b.right - 1 - originX) / cellSize;
+        int gy1 = (b.bottom - 1 - originY) / cellSize;
+        for (int gy = gy0; gy <= gy1; gy++) {
+            int top = originY + gy * cellSize;
+            int cellBottom = Math.min(bottom, top + cellSize);
+            for (int gx = gx0; gx <= gx1; gx++) {
+                int left = originX + gx * cellSize;
+                int cellRight = Math.min(right, left + cellSize);
+
+                // Пиксели ячейки за рамкой сегмента ему не принадлежат
+                boolean insideBounds = left >= b.left && top >= b.top
+                        && cellRight <= b.right && cellBottom <= b.bottom;
+                int cover;
+                if (mask != null) {
+                    cover = mask.coverage(Math.max(left, b.left), Math.max(top, b.top),
+                            Math.min(cellRight, b.right), Math.min(cellBottom, b.bottom));
+                    if (cover == SegmentMask.COVER_FULL && !insideBounds) {
+                        cover = SegmentMask.COVER_PARTIAL;
+                    }
+                } else if (shaped) {
+                    // Контур без маски проверяется только точно
+                    cover = SegmentMask.COVER_PARTIAL;
+                } else {
+                    cover = insideBounds ? SegmentMask.COVER_FULL : SegmentMask.COVER_PARTIAL;
+                }
+
+                if (cover == SegmentMask.COVER_FULL) {
+                    cells[gy * cols + gx] = (short) id;
+                } else if (cover == SegmentMask.COVER_PARTIAL) {
+                    cells[gy * cols + gx] = AMBIGUOUS;
+                }
+            }
+        }
+    }
+
+    public int getByteCount() {
+        return cells.length * 2 + candidates.length * 4;
+    }
+
+    /**
+     * Индекс верхнего сегмента, содержащего точку, или -1
+     */
+    public synchronized int find(int x, int y) {
+        if (x < originX || y < originY || x >= right || y >= bottom) {
+            return -1;
+        }
+        short cell = cells[((y - originY) / cellSize) * cols + (x - originX) / cellSize];
+        if (cell != AMBIGUOUS) {
+            return cell;
+        }
+
+        int found = index.overlapping(new org.opencv.core.Rect(x, y, 1, 1), candidates);
+        int best = -1;
+        for (int k = 0; k < found; k++) {
+            int id = candidates[k];
+            if (id > best && segments.get(id).containsPoint(x, y)) {
+                best = id;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,286 @@
+package com.example.miminor.segmentation;
+
+/**
+ * Точная маска сегмента: битовое множество long[] по строкам, обрезанное по рамке.
+ *
+ * Маска хранится в разрешении обработки (ячейка сетки — один пиксель обработки), а запросы
+ * принимают координаты исходного изображения: размер ячейки в пикселях изображения задается
+ * при создании. Площадь и центр масс считаются один раз при построении. Неизменяема.
+ */
+public final class SegmentMask {
+    /** Результаты {@link #coverage}: ни одного пикселя, часть, все пиксели области */
+    public static final int COVER_NONE = 0;
+    public static final int COVER_PARTIAL = 1;
+    public static final int COVER_FULL = 2;
+
+    /** Рамка в ячейках сетки */
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+    /** Размер ячейки в пикселях изображения */
+    private final float cellWidth;
+    private final float cellHeight;
+
+    /** Слов long на строку; биты за правым краем рамки всегда нулевые */
+    private final int stride;
+    private final long[] bits;
+
+    private final int cellCount;
+    private final float centroidX;
+    private final float centroidY;
+
+    private SegmentMask(int left, int top, int width, int height,
+                        float cellWidth, float cellHeight, long[] bits) {
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.stride = (width + 63) >>> 6;
+        this.bits = bits;
+
+        int count = 0;
+        long sumX = 0;
+        long sumY = 0;
+        for (int y = 0; y < height; y++) {
+            int rowCount = 0;
+            for (int k = 0; k < stride; k++) {
+                long word = bits[y * stride + k];
+                rowCount += Long.bitCount(word);
+                while (word != 0) {
+                    sumX += (k << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word - 1;
+                }
+            }
+            count += rowCount;
+            sumY += (long) y * rowCount;
+        }
+        this.cellCount = count;
+        // Центр ячейки (x + 0.5) в координатах изображения
+        this.centroidX = count == 0 ? 0 : (float) ((left + (double) sumX / count + 0.5) * cellWidth);
+        this.centroidY = count == 0 ? 0 : (float) ((top + (double) sumY / count + 0.5) * cellHeight);
+    }
+
+    /**
+     * @param bounds рамка маски в ячейках сетки
+     * @param mask   bounds.width * bounds.height, построчно, ненулевое внутри
+     */
+    public static SegmentMask fromBytes(org.opencv.core.Rect bounds, byte[] mask, float cellWidth, float cellHeight) {
+        int stride = (bounds.width + 63) >>> 6;
+        long[] bits = new long[stride * bounds.height];
+        for (int y = 0; y < bounds.height; y++) {
+            int src = y * bounds.width;
+            int row = y * stride;
+            for (int x = 0; x < bounds.width; x++) {
+                if (mask[src + x] != 0) {
+                    bits[row + (x >>> 6)] |= 1L << x;
+                }
+            }
+        }
+        return new SegmentMask(bounds.x, bounds.y, bounds.width, bounds.height, cellWidth, cellHeight, bits);
+    }
+
+    /**
+     * Маска заливки контура (правило чет-нечет), контур — в ячейках сетки
+     */
+    public static SegmentMask fromContour(PackedContour contour, float cellWidth, float cellHeight) {
+        int width = contour.maxX - contour.minX + 1;
+        int height = contour.maxY - contour.minY + 1;
+        int stride = (width + 63) >>> 6;
+        long[] bits = new long[stride * height];
+        double[] crossings = new double[contour.size()];
+
+        for (int y = 0; y < height; y++) {
+            int count = contour.rowCrossings(contour.minY + y, crossings);
+            for (int k = 0; k + 1 < count; k += 2) {
+                int from = Math.max(0, (int) Math.ceil(crossings[k]) - contour.minX);
+                int to = Math.min(width - 1, (int) Math.floor(crossings[k + 1]) - contour.minX);
+                setRange(bits, y * stride, from, to + 1);
+            }
+        }
+        return new SegmentMask(contour.minX, contour.minY, width, height, cellWidth, cellHeight, bits);
+    }
+
+    /**
+     * Устанавливает биты [from, to) строки, начинающейся со слова row
+     */
+    private static void setRange(long[] bits, int row, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (-to & 63);
+        if (first == last) {
+            bits[row + first] |= firstMask & lastMask;
+            return;
+        }
+        bits[row + first] |= firstMask;
+        for (int k = first + 1; k < last; k++) {
+            bits[row + k] = -1L;
+        }
+        bits[row + last] |= lastMask;
+    }
+
+    /**
+     * Принадлежит ли пиксель изображения (x, y) маске
+     */
+    public boolean contains(int x, int y) {
+        int cx = (int) Math.floor(x / cellWidth) - left;
+        int cy = (int) Math.floor(y / cellHeight) - top;
+        if (cx < 0 || cy < 0 || cx >= width || cy >= height) {
+            return false;
+        }
+        return (bits[cy * stride + (cx >>> 6)] & (1L << cx)) != 0;
+    }
+
+    /**
+     * Насколько маска покрывает прямоугольник изображения [left, right) x [top, bottom):
+     * просматриваются ячейки, в которые попадают его пиксели
+     */
+    public int coverage(int left, int top, int right, int bottom) {
+        int cx0 = (int) Math.floor(left / cellWidth) - this.left;
+        int cy0 = (int) Math.floor(top / cellHeight) - this.top;
+        int cx1 = (int) Math.floor((right - 1) / cellWidth) - this.left;
+        int cy1 = (int) Math.floor((bottom - 1) / cellHeight) - this.top;
+        long total = (long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1);
+
+        int from = Math.max(0, cx0);
+        int to = Math.min(width - 1, cx1);
+        long count = 0;
+        for (int cy = Math.max(0, cy0); cy <= Math.min(height - 1, cy1) && from <= to; cy++) {
+            count += countRange(cy * stride, from, to + 1);
+        }
+        if (count == 0) {
+            return COVER_NONE;
+        }
+        return count == total ? COVER_FULL : COVER_PARTIAL;
+    }
+
+    /**
+     * Число установленных битов [from, to) строки, начинающейся со слова row
+     */
+    private int countRange(int row, int from, int to) {
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long firstMask = -1L << from;
+        long lastMask = -1L >>> (-to & 63);
+        if (first == last) {
+            return Long.bitCount(bits[row + first] & firstMask & lastMask);
+        }
+        int count = Long.bitCount(bits[row + first] & firstMask);
+        for (int k = first + 1; k < last; k++) {
+            count += Long.bitCount(bits[row + k]);
+        }
+        return count + Long.bitCount(bits[row + last] & lastMask);
+    }
+
+    /**
+     * Площадь в пикселях изображения
+     */
+    public int getArea() {
+        return Math.round(cellCount * cellWidth * cellHeight);
+    }
+
+    public int getCellCount() {
+        return cellCount;
+    }
+
+    public float getCentroidX() {
+        return centroidX;
+    }
+
+    public float getCentroidY() {
+        return centroidY;
+    }
+
+    public boolean isEmpty() {
+        return cellCount == 0;
+    }
+
+    /**
+     * Объем хранимых битов в байтах
+     */
+    public int getByteCount() {
+        return bits.length * 8;
+    }
+
+    public SegmentMask union(SegmentMask other) {
+        checkGrid(other);
+        int x0 = Math.min(left, other.left);
+        int y0 = Math.min(top, other.top);
+        int x1 = Math.max(left + width, other.left + other.width);
+        int y1 = Math.max(top + height, other.top + other.height);
+        return combine(other, x0, y0, x1 - x0, y1 - y0, false);
+    }
+
+    public SegmentMask intersection(SegmentMask other) {
+        checkGrid(other);
+        int x0 = Math.max(left, other.left);
+        int y0 = Math.max(top, other.top);
+        int x1 = Math.min(left + width, other.left + other.width);
+        int y1 = Math.min(top + height, other.top + other.height);
+        return combine(other, x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0), true);
+    }
+
+    private void checkGrid(SegmentMask other) {
+        if (cellWidth != other.cellWidth || cellHeight != other.cellHeight) {
+            throw new IllegalArgumentException("Masks use different grids");
+        }
+    }
+
+    private SegmentMask combine(SegmentMask other, int x0, int y0, int w, int h, boolean and) {
+        int newStride = (w + 63) >>> 6;
+        long[] result = new long[newStride * h];
+        for (int y = 0; y < h; y++) {
+            for (int k = 0; k < newStride; k++) {
+                int x = x0 + (k << 6);
+                long a = wordAt(y0 + y, x);
+                long b = other.wordAt(y0 + y, x);
+                result[y * newStride + k] = and ? a & b : a | b;
+            }
+            // Биты за правым краем новой рамки обнуляются
+            if ((w & 63) != 0) {
+                result[y * newStride + newStride - 1] &= -1L >>> (-w & 63);
+            }
+        }
+        return new SegmentMask(x0, y0, w, h, cellWidth, cellHeight, result);
+    }
+
+    /**
+     * 64 бита ячеек x..x+63 строки y в абсолютных координатах сетки; вне рамки — нули
+     */
+    private long wordAt(int y, int x) {
+        int ry = y - top;
+        int rx = x - left;
+        if (ry < 0 || ry >= height || rx >= width || rx <= -64) {
+            return 0;
+        }
+        int row = ry * stride;
+        if (rx < 0) {
+            return bits[row] << -rx;
+        }
+        int k = rx >>> 6;
+        int shift = rx & 63;
+        long word = bits[row + k] >>> shift;
+        if (shift != 0 && k + 1 < stride) {
+            word |= bits[row + k + 1] << (64 - shift);
+        }
+        return word;
+    }
+
+    /**
+     * Рамка маски в координатах изображения
+     */
+    public android.graphics.Rect getBounds() {
+        return new android.graphics.Rect(
+            (int) (left * cellWidth),
+            (int) (top * cellHeight),
+            (int) ((left + width) * cellWidth),
+            (int) ((top + height) * cellHeight)
+        );
+    }
+}
@@ -2,6 +2,9 @@ package com.example.miminor.segmentation;
 
 import android.graphics.Bitmap;
 
+import com.example.miminor.utils.ColorInfo;
+import com.example.miminor.utils.DistinguishabilityMatrix;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -14,6 +17,8 @@ public class SegmentationResult {
     private final boolean success;
     private final String errorMessage;
     private final Bitmap resultBitmap;
+    /** Сетка попаданий по сегментам; строится вместе с результатом */
+    private final SegmentHitMap hitMap;
 
     private SegmentationResult(List<ImageSegment> segments, long processingTimeMs,
                                boolean success, String errorMessage, Bitmap resultBitmap) {
@@ -22,6 +27,7 @@ public class SegmentationResult {
         this.success = success;
         this.errorMessage = errorMessage;
         this.resultBitmap = resultBitmap;
+        this.hitMap = success ? SegmentHitMap.build(this.segments) : null;
     }
 
     public SegmentationResult(boolean success, List<ImageSegment> segments, Bitmap resultBitmap) {
@@ -57,9 +63,13 @@ public class SegmentationResult {
     }
 
     /**
-     * Находит сегмент по координатам точки
+     * Находит сегмент по координатам точки: верхний (последний в списке) из содержащих ее
      */
     public ImageSegment findSegmentAt(int x, int y) {
+        if (hitMap != null) {
+            int index = hitMap.find(x, y);
+            return index >= 0 ? segments.get(index) : null;
+        }
         for (int i = segments.size() - 1; i >= 0; i--) {
             ImageSegment segment = segments.get(i);
             if (segment.containsPoint(x, y)) {
@@ -69,10 +79,41 @@ public class SegmentationResult {
         return null;
     }
 
+    /**
+     * Строит матрицу различимости доминантных цветов сегментов для всех типов
+     * дальтонизма. Индексы соответствуют порядку {@link #getSegments()}.
+     */
+    public DistinguishabilityMatrix analyzeDistinguishability() {
+        int[] colors = new int[segments.size()];
+        for (int i = 0; i < colors.length; i++) {
+            ColorInfo dominant = segments.get(i).getDominantColor();
+            colors[i] = dominant != null ? dominant.getColor() : 0;
+        }
+        return DistinguishabilityMatrix.compute(colors);
+    }
+
     public int getSegmentCount() {
         return segments.size();
     }
 
+    /**
+     * Примерный объем результата в памяти: сегменты, сетка попаданий и bitmap результата
+     */
+    public long getByteCount() {
+        long bytes = 0;
+        for (ImageSegment segment : segments) {
+            // Рамка, цвета и прочие поля сегмента
+            bytes += 128 + segment.getByteCount();
+        }
+        if (hitMap != null) {
+            bytes += hitMap.getByteCount();
+        }
+        if (resultBitmap != null) {
+            bytes += resultBitmap.getByteCount();
+        }
+        return bytes;
+    }
+
     @Override
     public String toString() {
         if (!success) {
@@ -1,36 +1,55 @@
 package com.example.miminor.segmentation;
 
-import android.graphics.Bitmap;
-import android.graphics.Point;
-import android.graphics.Rect;
 import android.util.Log;
 
-import org.opencv.android.Utils;
+import com.example.miminor.utils.ColorConverter;
+import com.example.miminor.utils.OklabColor;
+
 import org.opencv.core.Core;
 import org.opencv.core.CvType;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfPoint;
 import org.opencv.core.Scalar;
-import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
 /**
- * Упрощенная быстрая сегментация для потокового режима.
- * Использует адаптивное квантование цветов + connected components.
- * 
- * Производительность: 50-150мс на 640×480
- * Сложность: O(N) - линейная
+ * Быстрая сегментация для потокового режима.
+ * Суперпиксели SLIC в OKLAB ({@link SlicSuperpixels}) + иерархическая склейка соседних
+ * суперпикселей по графу смежности ({@link RegionAdjacencyGraph}).
+ *
+ * Производительность: ~50мс SLIC + ~4мс склейка на 480×360 (десктоп, одно ядро);
+ * на устройстве весь проход дольше и в 100мс не укладывается
+ * Сложность: O(N · итерации) - линейная
  */
 public class SlicSegmenter extends BaseSegmenter {
     private static final String TAG = "SlicSegmenter";
 
+    /** ΔOKLAB между средними цветами, ниже которой соседние группы склеиваются */
+    private static final float MERGE_DISTANCE = 0.06f;
+    private static final int MIN_REGION_AREA = 400;
+    private static final int MIN_REGION_SIDE = 20;
+
+    private int superpixelCount = SlicSuperpixels.DEFAULT_COUNT;
+    private float compactness = SlicSuperpixels.DEFAULT_COMPACTNESS;
+
+    /**
+     * Желаемое число суперпикселей на кадр
+     */
+    public void setSuperpixelCount(int superpixelCount) {
+        this.superpixelCount = Math.max(1, superpixelCount);
+    }
+
+    /**
+     * Компактность суперпикселей: больше — ровнее форма, меньше — точнее по цвету
+     */
+    public void setCompactness(float compactness) {
+        this.compactness = Math.max(0f, compactness);
+    }
+
     @Override
     protected String getAlgorithmName() {
         return "FAST_STREAMING";
@@ -52,12 +71,10 @@ public class SlicSegmenter extends BaseSegmenter {
             return null;
         }
 
-        Mat lab = new Mat();
-        Imgproc.cvtColor(img, lab, Imgproc.COLOR_RGB2Lab);
-        
+        Mat lab = getFeatureStore().lab(getProcessingSize());
+
         double[] seedColor = lab.get(y, x);
         if (seedColor == null) {
-            lab.release();
             return null;
         }
         
@@ -77,23 +94,24 @@ public class SlicSegmenter extends BaseSegmenter {
         int area = Core.countNonZero(maskCropped);
         
         if (area < 50) {
-            lab.release();
             mask.release();
             return null;
         }
         
         Mat roi = img.submat(rect);
-        Scalar meanColor = Core.mean(roi, maskCropped.submat(rect));
+        Mat roiMask = maskCropped.submat(rect);
+        Scalar meanColor = Core.mean(roi, roiMask);
         roi.release();
-        
+
         RegionData region = new RegionData(rect, area);
         region.color = new int[]{
             (int) meanColor.val[0],
             (int) meanColor.val[1],
             (int) meanColor.val[2]
         };
-        
-        lab.release();
+        region.mask = new byte[rect.width * rect.height];
+        roiMask.get(0, 0, region.mask);
+        roiMask.release();
         mask.release();
         
         return region;
@@ -102,132 +120,96 @@ public class SlicSegmenter extends BaseSegmenter {
     @Override
     protected List<RegionData> extractRegions(Mat img) {
         long start = System.currentTimeMillis();
-        
-        Mat downscaled = new Mat();
-        Size targetSize = new Size(img.cols() / 2, img.rows() / 2);
-        Imgproc.resize(img, downscaled, targetSize, 0, 0, Imgproc.INTER_LINEAR);
-        
-        Mat lab = new Mat();
-        Imgproc.cvtColor(downscaled, lab, Imgproc.COLOR_RGB2Lab);
-        
-        Mat quantized = quantizeColors(lab, 32);
-        
-        Mat labels = new Mat(quantized.size(), CvType.CV_32S);
-        int numLabels = Imgproc.connectedComponents(quantized, labels, 8, CvType.CV_32S);
-        
-        List<RegionData> regions = extractConnectedRegions(downscaled, labels, numLabels);
-        
-        for (RegionData region : regions) {
-            region.bounds.x *= 2;
-            region.bounds.y *= 2;
-            region.bounds.width *= 2;
-            region.bounds.height *= 2;
+
+        int width = img.cols();
+        int height = img.rows();
+        byte[] rgb = new byte[width * height * 3];
+        img.get(0, 0, rgb);
+        int[] argb = new int[width * height];
+        for (int i = 0, p = 0; i < argb.length; i++, p += 3) {
+            argb[i] = 0xFF000000 | ((rgb[p] & 0xFF) << 16) | ((rgb[p + 1] & 0xFF) << 8) | (rgb[p + 2] & 0xFF);
         }
-        
-        downscaled.release();
-        lab.release();
-        quantized.release();
-        labels.release();
-        
+
+        SlicSuperpixels superpixels = SlicSuperpixels.compute(argb, width, height,
+                superpixelCount, compactness, SlicSuperpixels.DEFAULT_ITERATIONS);
+        RegionAdjacencyGraph graph = RegionAdjacencyGraph.build(superpixels.labels, width, height,
+                superpixels.count, superpixels.image);
+        graph.merge(MERGE_DISTANCE, 1);
+        List<RegionData> regions = extractMergedRegions(superpixels, graph);
+
         long elapsed = System.currentTimeMillis() - start;
-        Log.d(TAG, String.format("Fast segmentation: %d regions in %dms", regions.size(), elapsed));
-        
+        Log.d(TAG, String.format("Fast segmentation: %d superpixels, %d regions in %dms",
+                superpixels.count, regions.size(), elapsed));
+
         return regions;
     }
 
-    private Mat quantizeColors(Mat lab, int levels) {
-        Mat quantized = new Mat(lab.size(), CvType.CV_8UC1);
-        
-        byte[] labData = new byte[(int) (lab.total() * lab.channels())];
-        lab.get(0, 0, labData);
-        
-        byte[] outData = new byte[(int) quantized.total()];
-        
-        for (int i = 0; i < labData.length; i += 3) {
-            int L = labData[i] & 0xFF;
-            int a = labData[i+1] & 0xFF;
-            int b = labData[i+2] & 0xFF;
-            
-            int qL = (L / (256 / 4)) * (256 / 4);
-            int qa = (a / (256 / 4)) * (256 / 4);
-            int qb = (b / (256 / 4)) * (256 / 4);
-            
-            int hash = (qL / 4) * 64 + (qa / 4) * 8 + (qb / 4);
-            outData[i / 3] = (byte) (hash % 256);
+    /**
+     * Регионы из склеенных групп суперпикселей: статистика берется из графа,
+     * маски выбранных групп строятся одним проходом по меткам
+     */
+    private List<RegionData> extractMergedRegions(SlicSuperpixels sp, RegionAdjacencyGraph graph) {
+        int[] component = new int[sp.count];
+        List<ComponentStats> components = new ArrayList<>();
+        for (int i = 0; i < sp.count; i++) {
+            int root = graph.find(i);
+            component[i] = root;
+            if (root != i) continue;
+
+            if (graph.getArea(root) < MIN_REGION_AREA) continue;
+
+            org.opencv.core.Rect bounds = graph.getBounds(root);
+            if (bounds.width < MIN_REGION_SIDE || bounds.height < MIN_REGION_SIDE) continue;
+
+            ComponentStats stats = new ComponentStats();
+            stats.label = root;
+            stats.minX = bounds.x;
+            stats.minY = bounds.y;
+            stats.maxX = bounds.x + bounds.width - 1;
+            stats.maxY = bounds.y + bounds.height - 1;
+            stats.area = graph.getArea(root);
+            components.add(stats);
         }
-        
-        quantized.put(0, 0, outData);
-        return quantized;
-    }
 
-    private List<RegionData> extractConnectedRegions(Mat img, Mat labels, int numLabels) {
-        Map<Integer, ComponentStats> statsMap = new HashMap<>();
-        
-        int[] labelsData = new int[(int) labels.total()];
-        labels.get(0, 0, labelsData);
-        
-        for (int y = 0; y < labels.rows(); y++) {
-            for (int x = 0; x < labels.cols(); x++) {
-                int idx = y * labels.cols() + x;
-                int label = labelsData[idx];
-                
-                if (label == 0) continue;
-                
-                ComponentStats stats = statsMap.get(label);
-                if (stats == null) {
-                    stats = new ComponentStats();
-                    statsMap.put(label, stats);
-                }
-                
-                stats.minX = Math.min(stats.minX, x);
-                stats.minY = Math.min(stats.minY, y);
-                stats.maxX = Math.max(stats.maxX, x);
-                stats.maxY = Math.max(stats.maxY, y);
-                stats.area++;
+        Collections.sort(components, new Comparator<ComponentStats>() {
+            @Override
+            public int compare(ComponentStats c1, ComponentStats c2) {
+                return Integer.compare(c2.area, c1.area);
             }
+        });
+
+        if (components.size() > 40) {
+            components = components.subList(0, 40);
         }
-        
+
         List<RegionData> regions = new ArrayList<>();
-        
-        for (Map.Entry<Integer, ComponentStats> entry : statsMap.entrySet()) {
-            ComponentStats stats = entry.getValue();
-            
-            if (stats.area < 100) continue;
-            
-            int width = stats.maxX - stats.minX + 1;
-            int height = stats.maxY - stats.minY + 1;
-            
-            if (width < 10 || height < 10) continue;
-            
+        RegionData[] byLabel = new RegionData[sp.count];
+
+        for (ComponentStats stats : components) {
             org.opencv.core.Rect rect = new org.opencv.core.Rect(
-                stats.minX, stats.minY, width, height
+                stats.minX, stats.minY, stats.maxX - stats.minX + 1, stats.maxY - stats.minY + 1
             );
-            
-            Mat roi = img.submat(rect);
-            Scalar meanColor = Core.mean(roi);
-            roi.release();
-            
+
             RegionData region = new RegionData(rect, stats.area);
-            region.color = new int[]{
-                (int) meanColor.val[0],
-                (int) meanColor.val[1],
-                (int) meanColor.val[2]
-            };
-            
+            region.color = ColorConverter.oklabToRgb(new OklabColor(
+                graph.getMeanL(stats.label), graph.getMeanA(stats.label), graph.getMeanB(stats.label)));
+            region.mask = new byte[rect.width * rect.height];
+
             regions.add(region);
+            byLabel[stats.label] = region;
         }
-        
-        Collections.sort(regions, new Comparator<RegionData>() {
-            @Override
-            public int compare(RegionData r1, RegionData r2) {
-                return Integer.compare(r2.area, r1.area);
+
+        // Маски выбранных групп — одним проходом по меткам суперпикселей
+        int cols = sp.width;
+        for (int idx = 0; idx < sp.labels.length; idx++) {
+            RegionData region = byLabel[component[sp.labels[idx]]];
+            if (region != null) {
+                int x = idx % cols - region.bounds.x;
+                int y = idx / cols - region.bounds.y;
+                region.mask[y * region.bounds.width + x] = 1;
             }
-        });
-        
-        if (regions.size() > 40) {
-            regions = regions.subList(0, 40);
         }
-        
+
         return regions;
     }
 
@@ -237,5 +219,6 @@ public class SlicSegmenter extends BaseSegmenter {
         int maxX = 0;
         int maxY = 0;
         int area = 0;
+        int label;
     }
 }
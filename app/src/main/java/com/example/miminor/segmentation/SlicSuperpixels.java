@@ -0,0 +1,364 @@
+package com.example.miminor.segmentation;
+
+import com.example.miminor.utils.OklabImage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Суперпиксели SLIC в пространстве OKLAB на плоских массивах.
+ *
+ * Центры стоят на регулярной сетке с шагом S = sqrt(N / count). Каждый пиксель выбирает
+ * ближайший из центров 3×3 соседних ячеек сетки (как в gSLICr), поэтому шаг назначения
+ * независим по пикселям и идет полосами строк в пуле сегментаторов ({@link BaseSegmenter#POOL});
+ * каждая полоса копит свои суммы для пересчета центров. Первая итерация только сдвигает
+ * центры с сетки, поэтому идет по каждому второму пикселю в строке и столбце
+ * ({@link #COARSE_STRIDE}); остальные — по всем. После итераций метки делаются
+ * связными (мелкие куски присоединяются к соседу). Площадь, средний цвет, рамки и
+ * смежность суперпикселей собирает {@link RegionAdjacencyGraph} одним проходом по меткам.
+ *
+ * Расстояние: ΔOKLAB·100 (порядок ΔE CIELAB) и пространственное с весом compactness / S.
+ */
+public class SlicSuperpixels {
+    public static final int DEFAULT_COUNT = 400;
+    public static final float DEFAULT_COMPACTNESS = 10f;
+    public static final int DEFAULT_ITERATIONS = 4;
+
+    /** Строк изображения на одну полосу */
+    private static final int ROWS_PER_TASK = 32;
+    /** Шаг по пикселям первой итерации; ROWS_PER_TASK кратно ему */
+    private static final int COARSE_STRIDE = 2;
+    /** Масштаб OKLAB к шкале CIELAB, в которой задается compactness */
+    private static final float COLOR_SCALE = 100f;
+
+    public final int width;
+    public final int height;
+    /** Число суперпикселей; метки 0..count-1 */
+    public final int count;
+    public final int[] labels;
+    /** Исходное изображение в OKLAB, для следующих стадий */
+    public final OklabImage image;
+
+    private SlicSuperpixels(OklabImage image, int count, int[] labels) {
+        this.width = image.width;
+        this.height = image.height;
+        this.count = count;
+        this.labels = labels;
+        this.image = image;
+    }
+
+    public static SlicSuperpixels compute(int[] argb, int width, int height) {
+        return compute(argb, width, height, DEFAULT_COUNT, DEFAULT_COMPACTNESS, DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * @param argb        пиксели ARGB, построчно, width * height
+     * @param count       желаемое число суперпикселей
+     * @param compactness вес пространственной близости; больше — ровнее и компактнее
+     * @param iterations  число итераций назначения и пересчета центров
+     */
+    public static SlicSuperpixels compute(int[] argb, int width, int height,
+                                          int count, float compactness, int iterations) {
+        OklabImage image = OklabImage.fromPixels(argb, width, height);
+        Grid grid = new Grid(image, Math.max(1, count));
+
+        float spatialWeight = (compactness / grid.step) * (compactness / grid.step)
+                / (COLOR_SCALE * COLOR_SCALE);
+        int[] labels = new int[width * height];
+
+        List<Stripe> stripes = new ArrayList<>();
+        for (int rowStart = 0; rowStart < height; rowStart += ROWS_PER_TASK) {
+            stripes.add(new Stripe(image, grid, labels, spatialWeight,
+                    rowStart, Math.min(height, rowStart + ROWS_PER_TASK)));
+        }
+
+        int total = Math.max(1, iterations);
+        for (int iteration = 0; iteration < total; iteration++) {
+            // Последняя итерация всегда полная: по ней остаются метки всех пикселей
+            int stride = iteration == 0 && total > 1 ? COARSE_STRIDE : 1;
+            for (Stripe stripe : stripes) {
+                stripe.reinitialize();
+                stripe.stride = stride;
+                BaseSegmenter.POOL.execute(stripe);
+            }
+            for (Stripe stripe : stripes) {
+                stripe.join();
+            }
+            grid.update(stripes);
+        }
+
+        int[] connected = new int[width * height];
+        int segments = enforceConnectivity(labels, connected, width, height,
+                Math.max(1, (int) (grid.step * grid.step / 4)));
+
+        return new SlicSuperpixels(image, segments, connected);
+    }
+
+    /**
+     * Переразмечает пиксели связными компонентами (4-связность). Компоненты меньше
+     * minSize присоединяются к уже размеченному соседу, встреченному первым.
+     * @return число меток
+     */
+    private static int enforceConnectivity(int[] labels, int[] out, int width, int height, int minSize) {
+        Arrays.fill(out, -1);
+        int[] queue = new int[width * height];
+        int next = 0;
+
+        for (int start = 0; start < labels.length; start++) {
+            if (out[start] >= 0) {
+                continue;
+            }
+            int x0 = start % width;
+            int adjacent = -1;
+            if (x0 > 0) {
+                adjacent = out[start - 1];
+            } else if (start >= width) {
+                adjacent = out[start - width];
+            }
+
+            int old = labels[start];
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            out[start] = next;
+            while (head < tail) {
+                int p = queue[head++];
+                int x = p % width;
+                if (x > 0 && out[p - 1] < 0 && labels[p - 1] == old) {
+                    out[p - 1] = next;
+                    queue[tail++] = p - 1;
+                }
+                if (x < width - 1 && out[p + 1] < 0 && labels[p + 1] == old) {
+                    out[p + 1] = next;
+                    queue[tail++] = p + 1;
+                }
+                if (p >= width && out[p - width] < 0 && labels[p - width] == old) {
+                    out[p - width] = next;
+                    queue[tail++] = p - width;
+                }
+                if (p + width < labels.length && out[p + width] < 0 && labels[p + width] == old) {
+                    out[p + width] = next;
+                    queue[tail++] = p + width;
+                }
+            }
+
+            if (tail < minSize && adjacent >= 0) {
+                for (int k = 0; k < tail; k++) {
+                    out[queue[k]] = adjacent;
+                }
+            } else {
+                next++;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Центры кластеров, по одному на ячейку сетки gridW × gridH
+     */
+    private static class Grid {
+        final int gridW;
+        final int gridH;
+        final float cellW;
+        final float cellH;
+        final float step;
+
+        final float[] L;
+        final float[] a;
+        final float[] b;
+        final float[] x;
+        final float[] y;
+
+        Grid(OklabImage image, int count) {
+            int width = image.width;
+            int height = image.height;
+            float s = (float) Math.sqrt((double) width * height / count);
+            gridW = Math.max(1, Math.round(width / s));
+            gridH = Math.max(1, Math.round(height / s));
+            cellW = (float) width / gridW;
+            cellH = (float) height / gridH;
+            step = (float) Math.sqrt(cellW * cellH);
+
+            int k = gridW * gridH;
+            L = new float[k];
+            a = new float[k];
+            b = new float[k];
+            x = new float[k];
+            y = new float[k];
+
+            for (int gy = 0; gy < gridH; gy++) {
+                for (int gx = 0; gx < gridW; gx++) {
+                    int cx = Math.min(width - 1, (int) ((gx + 0.5f) * cellW));
+                    int cy = Math.min(height - 1, (int) ((gy + 0.5f) * cellH));
+                    int p = lowestGradient(image, cx, cy);
+                    int c = gy * gridW + gx;
+                    x[c] = p % width;
+                    y[c] = p / width;
+                    L[c] = image.L[p];
+                    a[c] = image.a[p];
+                    b[c] = image.b[p];
+                }
+            }
+        }
+
+        /**
+         * Сдвигает начальный центр в точку 3×3 окрестности с наименьшим градиентом,
+         * чтобы он не попал на границу
+         */
+        private static int lowestGradient(OklabImage image, int cx, int cy) {
+            int width = image.width;
+            int best = cy * width + cx;
+            float bestGradient = Float.MAX_VALUE;
+            for (int yy = Math.max(1, cy - 1); yy <= Math.min(image.height - 2, cy + 1); yy++) {
+                for (int xx = Math.max(1, cx - 1); xx <= Math.min(width - 2, cx + 1); xx++) {
+                    int p = yy * width + xx;
+                    float gradient = sq(image.L[p + 1] - image.L[p - 1]) + sq(image.L[p + width] - image.L[p - width])
+                            + sq(image.a[p + 1] - image.a[p - 1]) + sq(image.a[p + width] - image.a[p - width])
+                            + sq(image.b[p + 1] - image.b[p - 1]) + sq(image.b[p + width] - image.b[p - width]);
+                    if (gradient < bestGradient) {
+                        bestGradient = gradient;
+                        best = p;
+                    }
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Сводит суммы полос и переносит центры в средние своих пикселей; центр без
+         * пикселей остается на месте
+         */
+        void update(List<Stripe> stripes) {
+            int k = L.length;
+            for (int c = 0; c < k; c++) {
+                int n = 0;
+                double sL = 0, sA = 0, sB = 0, sX = 0, sY = 0;
+                for (Stripe stripe : stripes) {
+                    n += stripe.count[c];
+                    sL += stripe.sumL[c];
+                    sA += stripe.sumA[c];
+                    sB += stripe.sumB[c];
+                    sX += stripe.sumX[c];
+                    sY += stripe.sumY[c];
+                }
+                if (n > 0) {
+                    L[c] = (float) (sL / n);
+                    a[c] = (float) (sA / n);
+                    b[c] = (float) (sB / n);
+                    x[c] = (float) (sX / n);
+                    y[c] = (float) (sY / n);
+                }
+            }
+        }
+    }
+
+    /**
+     * Назначение пикселей полосы строк ближайшим центрам и суммы для их пересчета
+     */
+    private static class Stripe extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final OklabImage image;
+        private final Grid grid;
+        private final int[] labels;
+        private final float spatialWeight;
+        private final int rowStart;
+        private final int rowEnd;
+
+        final int[] count;
+        final double[] sumL;
+        final double[] sumA;
+        final double[] sumB;
+        final double[] sumX;
+        final double[] sumY;
+
+        /** Шаг по строкам и столбцам в текущей итерации */
+        int stride = 1;
+
+        Stripe(OklabImage image, Grid grid, int[] labels, float spatialWeight, int rowStart, int rowEnd) {
+            this.image = image;
+            this.grid = grid;
+            this.labels = labels;
+            this.spatialWeight = spatialWeight;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            int k = grid.L.length;
+            count = new int[k];
+            sumL = new double[k];
+            sumA = new double[k];
+            sumB = new double[k];
+            sumX = new double[k];
+            sumY = new double[k];
+        }
+
+        @Override
+        protected void compute() {
+            Arrays.fill(count, 0);
+            Arrays.fill(sumL, 0);
+            Arrays.fill(sumA, 0);
+            Arrays.fill(sumB, 0);
+            Arrays.fill(sumX, 0);
+            Arrays.fill(sumY, 0);
+
+            int width = image.width;
+            int gridW = grid.gridW;
+            int gridH = grid.gridH;
+            float[] cL = grid.L;
+            float[] cA = grid.a;
+            float[] cB = grid.b;
+            float[] cX = grid.x;
+            float[] cY = grid.y;
+
+            for (int py = rowStart; py < rowEnd; py += stride) {
+                int gy = Math.min(gridH - 1, (int) (py / grid.cellH));
+                int gy0 = Math.max(0, gy - 1);
+                int gy1 = Math.min(gridH - 1, gy + 1);
+                int row = py * width;
+
+                for (int px = 0; px < width; px += stride) {
+                    int p = row + px;
+                    float pl = image.L[p];
+                    float pa = image.a[p];
+                    float pb = image.b[p];
+
+                    int gx = Math.min(gridW - 1, (int) (px / grid.cellW));
+                    int gx0 = Math.max(0, gx - 1);
+                    int gx1 = Math.min(gridW - 1, gx + 1);
+
+                    int best = gy * gridW + gx;
+                    float bestDistance = Float.MAX_VALUE;
+                    for (int cy = gy0; cy <= gy1; cy++) {
+                        for (int cx = gx0; cx <= gx1; cx++) {
+                            int c = cy * gridW + cx;
+                            float dl = pl - cL[c];
+                            float da = pa - cA[c];
+                            float db = pb - cB[c];
+                            float dx = px - cX[c];
+                            float dy = py - cY[c];
+                            float distance = dl * dl + da * da + db * db
+                                    + spatialWeight * (dx * dx + dy * dy);
+                            if (distance < bestDistance) {
+                                bestDistance = distance;
+                                best = c;
+                            }
+                        }
+                    }
+
+                    labels[p] = best;
+                    count[best]++;
+                    sumL[best] += pl;
+                    sumA[best] += pa;
+                    sumB[best] += pb;
+                    sumX[best] += px;
+                    sumY[best] += py;
+                }
+            }
+        }
+    }
+
+    private static float sq(float v) {
+        return v * v;
+    }
+}
@@ -2,12 +2,22 @@ package com.example.miminor.utils;
 
 import android.graphics.Bitmap;
 import android.graphics.Color;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Симулятор различных типов дальтонизма (цветовой слепоты)
- * Использует матрицы трансформации цветов для имитации восприятия
+ * Использует матрицы трансформации цветов для имитации восприятия.
+ * Для изображений целиком есть LUT-движок: модели в линейном свете, коррекция
+ * (дальтонизация) и любая степень тяжести по одной цене на пиксель.
  */
 public class ColorBlindnessSimulator {
+    private static final String TAG = "ColorBlindnessSimulator";
 
     public enum ColorBlindnessType {
         NORMAL("Обычное зрение"),
@@ -30,29 +40,379 @@ public class ColorBlindnessSimulator {
         }
     }
 
+    /** Сдвиг фиксированной точки для целочисленных матриц (Q16) */
+    private static final int FIXED_SHIFT = 16;
+
+    /** Строк изображения на одну задачу ForkJoin */
+    private static final int ROWS_PER_TASK = 32;
+
+    /** Матрицы по ordinal() типа, вычисляются один раз */
+    private static final float[][][] MATRICES = new float[ColorBlindnessType.values().length][][];
+
+    /** Те же матрицы в фиксированной точке Q16, построчно в одном массиве из 9 элементов */
+    private static final int[][] FIXED_MATRICES = new int[ColorBlindnessType.values().length][];
+
+    /** Matrices of Machado et al. (2009) for full dichromacy, linear RGB */
+    private static final float[][] MACHADO_PROTAN = {
+        {0.152286f, 1.052583f, -0.204868f},
+        {0.114503f, 0.786281f, 0.099216f},
+        {-0.003882f, -0.048116f, 1.051998f}
+    };
+    private static final float[][] MACHADO_DEUTAN = {
+        {0.367322f, 0.860646f, -0.227968f},
+        {0.280085f, 0.672501f, 0.047413f},
+        {-0.011820f, 0.042940f, 0.968881f}
+    };
+    private static final float[][] MACHADO_TRITAN = {
+        {1.255528f, -0.076749f, -0.178779f},
+        {-0.078411f, 0.930809f, 0.147602f},
+        {0.004733f, 0.691367f, 0.303900f}
+    };
+    private static final float[][] LINEAR_LUMINANCE = {
+        {0.2126f, 0.7152f, 0.0722f},
+        {0.2126f, 0.7152f, 0.0722f},
+        {0.2126f, 0.7152f, 0.0722f}
+    };
+
+    /** Тяжесть аномальной трихромазии относительно дихромазии того же типа */
+    private static final float ANOMALY_SEVERITY = 0.6f;
+
+    /** Перенос ошибки красно-зеленой слепоты в зеленый и синий каналы (Fidaner et al.) */
+    private static final float[][] ERROR_SHIFT_RED_GREEN = {
+        {0f, 0f, 0f},
+        {0.7f, 1f, 0f},
+        {0.7f, 0f, 1f}
+    };
+    /** Перенос ошибки сине-желтой слепоты в красный и зеленый каналы */
+    private static final float[][] ERROR_SHIFT_BLUE_YELLOW = {
+        {1f, 0f, 0.7f},
+        {0f, 1f, 0.7f},
+        {0f, 0f, 0f}
+    };
+
+    /** LUT 33³ по 140 КБ; ключ — режим, тип и тяжесть в процентах */
+    private static final LruCache<String, ColorLut3D> LUT_CACHE = new LruCache<>(8);
+
+    /**
+     * Версия LUT в имени файла дискового кэша. Увеличивается при изменении матриц,
+     * модели тяжести или формата ColorLut3D, чтобы не читать таблицы прежних версий.
+     */
+    private static final int LUT_CACHE_VERSION = 1;
+
+    private static volatile File lutCacheDir;
+
+    static {
+        for (ColorBlindnessType type : ColorBlindnessType.values()) {
+            float[][] matrix = createTransformationMatrix(type);
+            int[] fixed = new int[9];
+            for (int i = 0; i < 3; i++) {
+                for (int j = 0; j < 3; j++) {
+                    fixed[i * 3 + j] = Math.round(matrix[i][j] * (1 << FIXED_SHIFT));
+                }
+            }
+            MATRICES[type.ordinal()] = matrix;
+            FIXED_MATRICES[type.ordinal()] = fixed;
+        }
+    }
+
     /**
      * Применяет симуляцию дальтонизма к изображению
      */
     public static Bitmap applyColorBlindnessFilter(Bitmap source, ColorBlindnessType type) {
+        return applyColorBlindnessFilter(source, type, null);
+    }
+
+    /**
+     * Применяет симуляцию дальтонизма к изображению, записывая результат в output.
+     * Пиксели читаются одним getPixels, обрабатываются полосами строк в ForkJoin-пуле
+     * целочисленной арифметикой и записываются одним setPixels.
+     *
+     * @param output Bitmap для переиспользования (ARGB_8888, изменяемый, того же размера);
+     *               если не подходит или null — создается новый. Может совпадать с source.
+     * @return результат, либо source для NORMAL
+     */
+    public static Bitmap applyColorBlindnessFilter(Bitmap source, ColorBlindnessType type, Bitmap output) {
         if (source == null || type == ColorBlindnessType.NORMAL) {
             return source;
         }
 
+        final int[] matrix = FIXED_MATRICES[type.ordinal()];
+        return applyKernel(source, output, new PixelKernel() {
+            @Override
+            public void apply(int[] pixels, int from, int to) {
+                applyFixedMatrix(pixels, from, to, matrix);
+            }
+        });
+    }
+
+    /**
+     * Симуляция восприятия через 3D LUT, построенную в линейном свете по модели Machado.
+     *
+     * @param severity тяжесть 0..1 (1 — полная форма данного типа)
+     * @param output   Bitmap для переиспользования, см. {@link #applyColorBlindnessFilter(Bitmap, ColorBlindnessType, Bitmap)}
+     */
+    public static Bitmap simulate(Bitmap source, ColorBlindnessType type, float severity, Bitmap output) {
+        if (source == null) {
+            return null;
+        }
+        return applyLut(source, getSimulationLut(type, severity), output);
+    }
+
+    /**
+     * Коррекция (дальтонизация): ошибка восприятия переносится в различимые каналы.
+     *
+     * @param severity тяжесть 0..1, под которую подбирается коррекция
+     */
+    public static Bitmap daltonize(Bitmap source, ColorBlindnessType type, float severity, Bitmap output) {
+        if (source == null) {
+            return null;
+        }
+        return applyLut(source, getCorrectionLut(type, severity), output);
+    }
+
+    /**
+     * Применяет произвольную 3D LUT ко всему изображению полосами строк в ForkJoin-пуле.
+     */
+    public static Bitmap applyLut(Bitmap source, final ColorLut3D lut, Bitmap output) {
+        if (source == null) {
+            return null;
+        }
+        return applyKernel(source, output, new PixelKernel() {
+            @Override
+            public void apply(int[] pixels, int from, int to) {
+                lut.apply(pixels, from, to);
+            }
+        });
+    }
+
+    /**
+     * Симулирует восприятие набора цветов той же моделью, что и LUT, но без построения
+     * таблицы и без интерполяции — для палитр и цветов сегментов. Альфа сохраняется.
+     */
+    public static void simulateColors(int[] colors, int offset, int count, ColorBlindnessType type,
+                                      float severity, int[] out) {
+        float[][] m = getLinearModel(type, Math.max(0f, Math.min(1f, severity)));
+        for (int i = offset; i < offset + count; i++) {
+            int color = colors[i];
+            float r = ColorConverter.srgbToLinear((color >> 16) & 0xFF);
+            float g = ColorConverter.srgbToLinear((color >> 8) & 0xFF);
+            float b = ColorConverter.srgbToLinear(color & 0xFF);
+
+            int newR = ColorLut3D.encode(m[0][0] * r + m[0][1] * g + m[0][2] * b);
+            int newG = ColorLut3D.encode(m[1][0] * r + m[1][1] * g + m[1][2] * b);
+            int newB = ColorLut3D.encode(m[2][0] * r + m[2][1] * g + m[2][2] * b);
+
+            out[i] = (color & 0xFF000000) | (newR << 16) | (newG << 8) | newB;
+        }
+    }
+
+    public static ColorLut3D getSimulationLut(ColorBlindnessType type, float severity) {
+        return getLut(type, severity, false);
+    }
+
+    public static ColorLut3D getCorrectionLut(ColorBlindnessType type, float severity) {
+        return getLut(type, severity, true);
+    }
+
+    /**
+     * Включает дисковый кэш LUT (например, getCacheDir()); null — только память.
+     */
+    public static void setLutCacheDir(File dir) {
+        lutCacheDir = dir;
+    }
+
+    private static ColorLut3D getLut(ColorBlindnessType type, float severity, boolean correction) {
+        int level = Math.round(Math.max(0f, Math.min(1f, severity)) * 100);
+        String key = (correction ? "daltonize_" : "simulate_") + type.name() + "_" + level;
+
+        ColorLut3D lut = LUT_CACHE.get(key);
+        if (lut != null) {
+            return lut;
+        }
+
+        File dir = lutCacheDir;
+        File file = dir != null ? new File(dir, "cvd_v" + LUT_CACHE_VERSION + "_" + key + ".lut") : null;
+        if (file != null && file.exists()) {
+            try {
+                lut = ColorLut3D.readFrom(file);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + file.getName(), e);
+            }
+        }
+
+        if (lut == null) {
+            float[][] simulation = getLinearModel(type, level / 100f);
+            lut = ColorLut3D.fromLinearMatrix(correction ? correctionMatrix(type, simulation) : simulation);
+            if (file != null) {
+                try {
+                    lut.writeTo(file);
+                } catch (IOException e) {
+                    Log.w(TAG, "Failed to cache " + file.getName(), e);
+                }
+            }
+        }
+
+        LUT_CACHE.put(key, lut);
+        return lut;
+    }
+
+    /**
+     * Модель в линейном RGB: смесь единичной матрицы и полной формы по тяжести
+     */
+    private static float[][] getLinearModel(ColorBlindnessType type, float severity) {
+        float[][] full;
+        float weight = severity;
+        switch (type) {
+            case PROTANOMALY:
+            case PROTANOPIA:
+                full = MACHADO_PROTAN;
+                break;
+            case DEUTERANOMALY:
+            case DEUTERANOPIA:
+                full = MACHADO_DEUTAN;
+                break;
+            case TRITANOMALY:
+            case TRITANOPIA:
+                full = MACHADO_TRITAN;
+                break;
+            case ACHROMATOPSIA:
+                full = LINEAR_LUMINANCE;
+                break;
+            case NORMAL:
+            default:
+                full = MATRICES[ColorBlindnessType.NORMAL.ordinal()];
+                break;
+        }
+        if (type == ColorBlindnessType.PROTANOMALY || type == ColorBlindnessType.DEUTERANOMALY
+                || type == ColorBlindnessType.TRITANOMALY) {
+            weight *= ANOMALY_SEVERITY;
+        }
+
+        float[][] model = new float[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                float identity = i == j ? 1f : 0f;
+                model[i][j] = identity + weight * (full[i][j] - identity);
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Дальтонизация одной матрицей: c' = c + S·(c − M·c) = (I + S·(I − M))·c
+     */
+    private static float[][] correctionMatrix(ColorBlindnessType type, float[][] simulation) {
+        float[][] shift;
+        switch (type) {
+            case PROTANOPIA:
+            case DEUTERANOPIA:
+            case PROTANOMALY:
+            case DEUTERANOMALY:
+                shift = ERROR_SHIFT_RED_GREEN;
+                break;
+            case TRITANOPIA:
+            case TRITANOMALY:
+                shift = ERROR_SHIFT_BLUE_YELLOW;
+                break;
+            default:
+                // Ахроматопсию цветом не скорректировать
+                shift = new float[3][3];
+                break;
+        }
+
+        float[][] result = new float[3][3];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                float sum = 0f;
+                for (int k = 0; k < 3; k++) {
+                    float error = (k == j ? 1f : 0f) - simulation[k][j];
+                    sum += shift[i][k] * error;
+                }
+                result[i][j] = (i == j ? 1f : 0f) + sum;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Общий проход по изображению: getPixels, ядро по полосам строк, setPixels
+     */
+    private static Bitmap applyKernel(Bitmap source, Bitmap output, PixelKernel kernel) {
         int width = source.getWidth();
         int height = source.getHeight();
-        Bitmap result = Bitmap.createBitmap(width, height, source.getConfig());
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int pixel = source.getPixel(x, y);
-                int transformedPixel = transformColor(pixel, type);
-                result.setPixel(x, y, transformedPixel);
-            }
+        Bitmap result = output;
+        if (result == null || !result.isMutable() || result.getWidth() != width
+                || result.getHeight() != height || result.getConfig() != Bitmap.Config.ARGB_8888) {
+            result = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
         }
 
+        int[] pixels = new int[width * height];
+        source.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        ForkJoinPool.commonPool().invoke(new FilterTask(pixels, width, 0, height, kernel));
+
+        result.setPixels(pixels, 0, width, 0, 0, width, height);
         return result;
     }
 
+    /**
+     * Применяет матрицу в фиксированной точке к пикселям [from, to) на месте
+     */
+    private static void applyFixedMatrix(int[] pixels, int from, int to, int[] m) {
+        for (int i = from; i < to; i++) {
+            int pixel = pixels[i];
+            int r = (pixel >> 16) & 0xFF;
+            int g = (pixel >> 8) & 0xFF;
+            int b = pixel & 0xFF;
+
+            int newR = Math.min(255, (m[0] * r + m[1] * g + m[2] * b) >> FIXED_SHIFT);
+            int newG = Math.min(255, (m[3] * r + m[4] * g + m[5] * b) >> FIXED_SHIFT);
+            int newB = Math.min(255, (m[6] * r + m[7] * g + m[8] * b) >> FIXED_SHIFT);
+
+            pixels[i] = (pixel & 0xFF000000) | (newR << 16) | (newG << 8) | newB;
+        }
+    }
+
+    /**
+     * Попиксельное преобразование диапазона [from, to) на месте
+     */
+    private interface PixelKernel {
+        void apply(int[] pixels, int from, int to);
+    }
+
+    /**
+     * Рекурсивное деление изображения на полосы строк
+     */
+    private static class FilterTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] pixels;
+        private final int width;
+        private final int rowStart;
+        private final int rowEnd;
+        private final PixelKernel kernel;
+
+        FilterTask(int[] pixels, int width, int rowStart, int rowEnd, PixelKernel kernel) {
+            this.pixels = pixels;
+            this.width = width;
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+            this.kernel = kernel;
+        }
+
+        @Override
+        protected void compute() {
+            if (rowEnd - rowStart <= ROWS_PER_TASK) {
+                kernel.apply(pixels, rowStart * width, rowEnd * width);
+                return;
+            }
+            int mid = (rowStart + rowEnd) >>> 1;
+            invokeAll(new FilterTask(pixels, width, rowStart, mid, kernel),
+                      new FilterTask(pixels, width, mid, rowEnd, kernel));
+        }
+    }
+
     /**
      * Трансформирует цвет согласно типу дальтонизма
      */
@@ -62,20 +422,29 @@ public class ColorBlindnessSimulator {
         int b = Color.blue(color);
         int a = Color.alpha(color);
 
-        float[] rgb = new float[]{r / 255f, g / 255f, b / 255f};
-        float[] transformed = applyColorMatrix(rgb, getTransformationMatrix(type));
+        float rf = r / 255f;
+        float gf = g / 255f;
+        float bf = b / 255f;
+        float[][] m = getTransformationMatrix(type);
 
-        int newR = clamp((int) (transformed[0] * 255));
-        int newG = clamp((int) (transformed[1] * 255));
-        int newB = clamp((int) (transformed[2] * 255));
+        int newR = clamp((int) ((m[0][0] * rf + m[0][1] * gf + m[0][2] * bf) * 255));
+        int newG = clamp((int) ((m[1][0] * rf + m[1][1] * gf + m[1][2] * bf) * 255));
+        int newB = clamp((int) ((m[2][0] * rf + m[2][1] * gf + m[2][2] * bf) * 255));
 
         return Color.argb(a, newR, newG, newB);
     }
 
     /**
-     * Возвращает матрицу трансформации для типа дальтонизма
+     * Возвращает предвычисленную матрицу трансформации для типа дальтонизма
      */
     private static float[][] getTransformationMatrix(ColorBlindnessType type) {
+        return MATRICES[type.ordinal()];
+    }
+
+    /**
+     * Создает матрицу трансформации для типа дальтонизма
+     */
+    private static float[][] createTransformationMatrix(ColorBlindnessType type) {
         switch (type) {
             case PROTANOPIA:
                 // Отсутствие L-колбочек (красные)
@@ -144,21 +513,6 @@ public class ColorBlindnessSimulator {
         }
     }
 
-    /**
-     * Применяет матрицу трансформации к RGB значениям
-     */
-    private static float[] applyColorMatrix(float[] rgb, float[][] matrix) {
-        float[] result = new float[3];
-
-        for (int i = 0; i < 3; i++) {
-            result[i] = matrix[i][0] * rgb[0] +
-                       matrix[i][1] * rgb[1] +
-                       matrix[i][2] * rgb[2];
-        }
-
-        return result;
-    }
-
     /**
      * Ограничивает значение в диапазоне [0, 255]
      */
@@ -6,6 +6,44 @@ package com.example.miminor.utils;
  */
 public class ColorConverter {
 
+    /**
+     * sRGB → linear lookup for 8-bit channels.
+     * Replaces three Math.pow calls per pixel with three array reads.
+     */
+    private static final float[] SRGB_TO_LINEAR = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            SRGB_TO_LINEAR[i] = gammaToLinear(i / 255f);
+        }
+    }
+
+    /** 25^7, the chroma normalization constant of CIEDE2000. */
+    private static final double POW_25_7 = 6103515625.0;
+
+    /** Resolution of the hue tables, entries per degree. */
+    private static final int HUE_STEPS = 16;
+
+    /** T(h') weighting function of CIEDE2000, sampled over [0, 360]. */
+    private static final float[] CIEDE_T = new float[360 * HUE_STEPS + 2];
+
+    /** sin(2Δθ) factor of the rotation term R_T, sampled over [0, 360]. */
+    private static final float[] CIEDE_ROTATION = new float[360 * HUE_STEPS + 2];
+
+    static {
+        for (int i = 0; i < CIEDE_T.length; i++) {
+            double h = Math.toRadians((double) i / HUE_STEPS);
+            CIEDE_T[i] = (float) (1 - 0.17 * Math.cos(h - Math.PI/6) +
+                                  0.24 * Math.cos(2 * h) +
+                                  0.32 * Math.cos(3 * h + Math.PI/30) -
+                                  0.20 * Math.cos(4 * h - 63 * Math.PI/180));
+
+            double hDeg = (double) i / HUE_STEPS;
+            CIEDE_ROTATION[i] = (float) Math.sin(60 * Math.PI/180 *
+                Math.exp(-((hDeg - 275) / 25) * ((hDeg - 275) / 25)));
+        }
+    }
+
     /**
      * Converts sRGB color to OKLAB perceptually uniform color space.
      * 
@@ -21,9 +59,9 @@ public class ColorConverter {
      * @return OKLAB color representation
      */
     public static OklabColor rgbToOklab(int r, int g, int b) {
-        float rLin = gammaToLinear(r / 255f);
-        float gLin = gammaToLinear(g / 255f);
-        float bLin = gammaToLinear(b / 255f);
+        float rLin = SRGB_TO_LINEAR[r];
+        float gLin = SRGB_TO_LINEAR[g];
+        float bLin = SRGB_TO_LINEAR[b];
 
         float l = 0.4122214708f * rLin + 0.5363325363f * gLin + 0.0514459929f * bLin;
         float m = 0.2119034982f * rLin + 0.6806995451f * gLin + 0.1073969566f * bLin;
@@ -40,6 +78,64 @@ public class ColorConverter {
         );
     }
 
+    /**
+     * Bulk sRGB → OKLAB conversion into caller-supplied planar arrays.
+     * Alpha is ignored. Allocates nothing; runs of identical pixels are converted once.
+     *
+     * @param argb      packed ARGB pixels (as returned by Bitmap.getPixels)
+     * @param offset    first pixel to convert
+     * @param count     number of pixels to convert
+     * @param outL      L plane, written at [outOffset, outOffset + count)
+     * @param outA      a plane
+     * @param outB      b plane
+     * @param outOffset first index to write in the output planes
+     */
+    public static void rgbToOklab(int[] argb, int offset, int count,
+                                  float[] outL, float[] outA, float[] outB, int outOffset) {
+        int lastRgb = -1;
+        float lastL = 0f, lastA = 0f, lastB = 0f;
+
+        for (int i = 0; i < count; i++) {
+            int rgb = argb[offset + i] & 0xFFFFFF;
+            int o = outOffset + i;
+
+            if (rgb != lastRgb) {
+                float rLin = SRGB_TO_LINEAR[rgb >>> 16];
+                float gLin = SRGB_TO_LINEAR[(rgb >>> 8) & 0xFF];
+                float bLin = SRGB_TO_LINEAR[rgb & 0xFF];
+
+                float lRoot = cbrt(0.4122214708f * rLin + 0.5363325363f * gLin + 0.0514459929f * bLin);
+                float mRoot = cbrt(0.2119034982f * rLin + 0.6806995451f * gLin + 0.1073969566f * bLin);
+                float sRoot = cbrt(0.0883024619f * rLin + 0.2817188376f * gLin + 0.6299787005f * bLin);
+
+                lastL = 0.2104542553f * lRoot + 0.7936177850f * mRoot - 0.0040720468f * sRoot;
+                lastA = 1.9779984951f * lRoot - 2.4285922050f * mRoot + 0.4505937099f * sRoot;
+                lastB = 0.0259040371f * lRoot + 0.7827717662f * mRoot - 0.8086757660f * sRoot;
+                lastRgb = rgb;
+            }
+
+            outL[o] = lastL;
+            outA[o] = lastA;
+            outB[o] = lastB;
+        }
+    }
+
+    /**
+     * Bulk sRGB → OKLAB conversion of a whole pixel array.
+     *
+     * @see #rgbToOklab(int[], int, int, float[], float[], float[], int)
+     */
+    public static void rgbToOklab(int[] argb, float[] outL, float[] outA, float[] outB) {
+        rgbToOklab(argb, 0, argb.length, outL, outA, outB, 0);
+    }
+
+    /**
+     * Linear-light value of an 8-bit sRGB channel, served from a 256-entry table.
+     */
+    public static float srgbToLinear(int channel) {
+        return SRGB_TO_LINEAR[channel];
+    }
+
     /**
      * Converts OKLAB back to sRGB.
      * Inverse transformation of rgbToOklab.
@@ -86,110 +182,219 @@ public class ColorConverter {
      * ΔE00 = 0.8: just noticeable difference (JND)
      * ΔE00 = 1.8: acceptability threshold for critical applications
      * 
-     * Note: More computationally expensive than Euclidean OKLAB distance.
+     * OKLAB inputs are converted to CIELAB directly through linear RGB,
+     * without clamping to 8-bit sRGB.
      * Use for precision mode only.
      */
     public static float ciede2000Distance(OklabColor c1, OklabColor c2) {
-        int[] rgb1 = oklabToRgb(c1);
-        int[] rgb2 = oklabToRgb(c2);
-        
-        float[] lab1 = rgbToLab(rgb1[0], rgb1[1], rgb1[2]);
-        float[] lab2 = rgbToLab(rgb2[0], rgb2[1], rgb2[2]);
-        
-        return calculateCIEDE2000(lab1, lab2);
+        return ciede2000Distance(oklabToLab(c1), oklabToLab(c2));
     }
 
-    private static float[] rgbToLab(int r, int g, int b) {
-        float rLin = gammaToLinear(r / 255f);
-        float gLin = gammaToLinear(g / 255f);
-        float bLin = gammaToLinear(b / 255f);
+    /**
+     * CIEDE2000 distance between two CIELAB colors.
+     */
+    public static float ciede2000Distance(LabColor c1, LabColor c2) {
+        double C1 = Math.sqrt((double) c1.a * c1.a + (double) c1.b * c1.b);
+        return deltaE2000(c1.L, c1.a, c1.b, C1, c2.L, c2.a, c2.b);
+    }
 
-        float x = rLin * 0.4124564f + gLin * 0.3575761f + bLin * 0.1804375f;
-        float y = rLin * 0.2126729f + gLin * 0.7151522f + bLin * 0.0721750f;
-        float z = rLin * 0.0193339f + gLin * 0.1191920f + bLin * 0.9503041f;
+    /**
+     * Batch CIEDE2000: distance from one reference to every pixel of planar CIELAB data.
+     * Reference chroma is computed once; hue-dependent terms come from precomputed tables.
+     * Suitable for building a per-pixel ΔE00 distance map in precision mode.
+     * Matches a double-precision evaluation of the formula to 1e-5 for ΔE00 below 5
+     * and to 3e-6 relative above (ColorConverterTest).
+     *
+     * @param reference reference color
+     * @param L         L* plane
+     * @param a         a* plane
+     * @param b         b* plane
+     * @param offset    first index to process
+     * @param count     number of values to process
+     * @param out       receives ΔE00 at the same indices
+     */
+    public static void deltaE2000(LabColor reference, float[] L, float[] a, float[] b,
+                                  int offset, int count, float[] out) {
+        float L1 = reference.L;
+        float a1 = reference.a;
+        float b1 = reference.b;
+        double C1 = Math.sqrt((double) a1 * a1 + (double) b1 * b1);
+
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            out[i] = deltaE2000(L1, a1, b1, C1, L[i], a[i], b[i]);
+        }
+    }
+
+    /**
+     * Batch CIEDE2000 over whole planes.
+     *
+     * @see #deltaE2000(LabColor, float[], float[], float[], int, int, float[])
+     */
+    public static void deltaE2000(LabColor reference, float[] L, float[] a, float[] b, float[] out) {
+        deltaE2000(reference, L, a, b, 0, L.length, out);
+    }
 
-        x = x / 0.95047f;
-        y = y / 1.00000f;
-        z = z / 1.08883f;
+    /**
+     * Converts sRGB color to CIELAB (D65).
+     */
+    public static LabColor rgbToLab(int r, int g, int b) {
+        return linearRgbToLab(SRGB_TO_LINEAR[r], SRGB_TO_LINEAR[g], SRGB_TO_LINEAR[b]);
+    }
 
-        x = x > 0.008856f ? (float) Math.pow(x, 1f/3f) : (7.787f * x + 16f/116f);
-        y = y > 0.008856f ? (float) Math.pow(y, 1f/3f) : (7.787f * y + 16f/116f);
-        z = z > 0.008856f ? (float) Math.pow(z, 1f/3f) : (7.787f * z + 16f/116f);
+    /**
+     * Converts OKLAB to CIELAB (D65) via unclamped linear RGB.
+     */
+    public static LabColor oklabToLab(OklabColor oklab) {
+        float lRoot = oklab.L * 0.9999999985f + 0.3963377774f * oklab.a + 0.2158037573f * oklab.b;
+        float mRoot = oklab.L * 1.0000000089f - 0.1055613458f * oklab.a - 0.0638541728f * oklab.b;
+        float sRoot = oklab.L * 1.0000000547f - 0.0894841775f * oklab.a - 1.2914855480f * oklab.b;
 
-        float L = 116f * y - 16f;
-        float a = 500f * (x - y);
-        float bVal = 200f * (y - z);
+        float l = lRoot * lRoot * lRoot;
+        float m = mRoot * mRoot * mRoot;
+        float s = sRoot * sRoot * sRoot;
 
-        return new float[] { L, a, bVal };
+        return linearRgbToLab(
+            +4.0767416621f * l - 3.3077115913f * m + 0.2309699292f * s,
+            -1.2684380046f * l + 2.6097574011f * m - 0.3413193965f * s,
+            -0.0041960863f * l - 0.7034186147f * m + 1.7076147010f * s
+        );
     }
 
-    private static float calculateCIEDE2000(float[] lab1, float[] lab2) {
-        float L1 = lab1[0], a1 = lab1[1], b1 = lab1[2];
-        float L2 = lab2[0], a2 = lab2[1], b2 = lab2[2];
-
-        float C1 = (float) Math.sqrt(a1 * a1 + b1 * b1);
-        float C2 = (float) Math.sqrt(a2 * a2 + b2 * b2);
-        float Cbar = (C1 + C2) / 2f;
+    /**
+     * Bulk sRGB → CIELAB conversion into caller-supplied planar arrays.
+     * Allocates nothing; runs of identical pixels are converted once.
+     *
+     * @see #rgbToOklab(int[], int, int, float[], float[], float[], int)
+     */
+    public static void rgbToLab(int[] argb, int offset, int count,
+                                float[] outL, float[] outA, float[] outB, int outOffset) {
+        int lastRgb = -1;
+        float lastL = 0f, lastA = 0f, lastB = 0f;
+
+        for (int i = 0; i < count; i++) {
+            int rgb = argb[offset + i] & 0xFFFFFF;
+            int o = outOffset + i;
+
+            if (rgb != lastRgb) {
+                float rLin = SRGB_TO_LINEAR[rgb >>> 16];
+                float gLin = SRGB_TO_LINEAR[(rgb >>> 8) & 0xFF];
+                float bLin = SRGB_TO_LINEAR[rgb & 0xFF];
+
+                float fx = labF((rLin * 0.4124564f + gLin * 0.3575761f + bLin * 0.1804375f) / 0.95047f);
+                float fy = labF(rLin * 0.2126729f + gLin * 0.7151522f + bLin * 0.0721750f);
+                float fz = labF((rLin * 0.0193339f + gLin * 0.1191920f + bLin * 0.9503041f) / 1.08883f);
+
+                lastL = 116f * fy - 16f;
+                lastA = 500f * (fx - fy);
+                lastB = 200f * (fy - fz);
+                lastRgb = rgb;
+            }
 
-        float G = 0.5f * (1f - (float) Math.sqrt(Math.pow(Cbar, 7) / (Math.pow(Cbar, 7) + Math.pow(25, 7))));
-        float a1p = a1 * (1f + G);
-        float a2p = a2 * (1f + G);
+            outL[o] = lastL;
+            outA[o] = lastA;
+            outB[o] = lastB;
+        }
+    }
 
-        float C1p = (float) Math.sqrt(a1p * a1p + b1 * b1);
-        float C2p = (float) Math.sqrt(a2p * a2p + b2 * b2);
+    private static LabColor linearRgbToLab(float rLin, float gLin, float bLin) {
+        float x = rLin * 0.4124564f + gLin * 0.3575761f + bLin * 0.1804375f;
+        float y = rLin * 0.2126729f + gLin * 0.7151522f + bLin * 0.0721750f;
+        float z = rLin * 0.0193339f + gLin * 0.1191920f + bLin * 0.9503041f;
 
-        float h1p = Math.abs(a1p) + Math.abs(b1) == 0 ? 0 : (float) Math.atan2(b1, a1p);
-        float h2p = Math.abs(a2p) + Math.abs(b2) == 0 ? 0 : (float) Math.atan2(b2, a2p);
+        float fx = labF(x / 0.95047f);
+        float fy = labF(y / 1.00000f);
+        float fz = labF(z / 1.08883f);
 
-        if (h1p < 0) h1p += 2 * Math.PI;
-        if (h2p < 0) h2p += 2 * Math.PI;
+        return new LabColor(116f * fy - 16f, 500f * (fx - fy), 200f * (fy - fz));
+    }
 
-        float dLp = L2 - L1;
-        float dCp = C2p - C1p;
+    private static float labF(float t) {
+        return t > 0.008856f ? cbrt(t) : (7.787f * t + 16f/116f);
+    }
 
-        float dhp;
-        if (C1p * C2p == 0) {
-            dhp = 0;
+    /**
+     * Core CIEDE2000 kernel. Takes reference chroma C1 precomputed.
+     * ΔH' uses the identity ΔH'² = 2(C1'C2' − a1'a2' − b1b2), so no sin is needed;
+     * T and R_T hue terms are read from tables with linear interpolation.
+     * Accumulates in double: the identity cancels badly in float for near-neutral
+     * pairs with a small hue difference.
+     */
+    private static float deltaE2000(double L1, double a1, double b1, double C1,
+                                    double L2, double a2, double b2) {
+        double C2 = Math.sqrt(a2 * a2 + b2 * b2);
+        double Cbar = (C1 + C2) / 2;
+
+        double G = 0.5 * (1 - Math.sqrt(chromaWeight(Cbar)));
+        double a1p = a1 * (1 + G);
+        double a2p = a2 * (1 + G);
+
+        double C1p = Math.sqrt(a1p * a1p + b1 * b1);
+        double C2p = Math.sqrt(a2p * a2p + b2 * b2);
+
+        double dLp = L2 - L1;
+        double dCp = C2p - C1p;
+
+        double dHp;
+        double hpbar;
+        double chromaProduct = C1p * C2p;
+        if (chromaProduct == 0) {
+            dHp = 0;
+            hpbar = hueDegrees(a1p, b1) + hueDegrees(a2p, b2);
         } else {
-            dhp = h2p - h1p;
-            if (dhp > Math.PI) dhp -= 2 * Math.PI;
-            if (dhp < -Math.PI) dhp += 2 * Math.PI;
+            double dHSquared = 2 * (chromaProduct - a1p * a2p - b1 * b2);
+            dHp = Math.sqrt(Math.max(0, dHSquared));
+            if (a1p * b2 - b1 * a2p < 0) dHp = -dHp;
+
+            double h1p = hueDegrees(a1p, b1);
+            double h2p = hueDegrees(a2p, b2);
+            hpbar = (h1p + h2p) / 2;
+            if (Math.abs(h1p - h2p) > 180) {
+                if (hpbar < 180) hpbar += 180;
+                else hpbar -= 180;
+            }
         }
 
-        float dHp = 2 * (float) Math.sqrt(C1p * C2p) * (float) Math.sin(dhp / 2);
+        double Lbar = (L1 + L2) / 2;
+        double Cpbar = (C1p + C2p) / 2;
 
-        float Lbar = (L1 + L2) / 2f;
-        float Cpbar = (C1p + C2p) / 2f;
+        double T = hueTable(CIEDE_T, hpbar);
 
-        float hpbar;
-        if (C1p * C2p == 0) {
-            hpbar = h1p + h2p;
-        } else {
-            hpbar = (h1p + h2p) / 2f;
-            if (Math.abs(h1p - h2p) > Math.PI) {
-                if (hpbar < Math.PI) hpbar += Math.PI;
-                else hpbar -= Math.PI;
-            }
-        }
+        double lbarDelta = (Lbar - 50) * (Lbar - 50);
+        double SL = 1 + (0.015 * lbarDelta) / Math.sqrt(20 + lbarDelta);
+        double SC = 1 + 0.045 * Cpbar;
+        double SH = 1 + 0.015 * Cpbar * T;
 
-        float T = 1 - 0.17f * (float) Math.cos(hpbar - Math.PI/6) +
-                  0.24f * (float) Math.cos(2 * hpbar) +
-                  0.32f * (float) Math.cos(3 * hpbar + Math.PI/30) -
-                  0.20f * (float) Math.cos(4 * hpbar - 63 * Math.PI/180);
+        double RT = -2 * Math.sqrt(chromaWeight(Cpbar)) * hueTable(CIEDE_ROTATION, hpbar);
 
-        float SL = 1 + (0.015f * (Lbar - 50) * (Lbar - 50)) / (float) Math.sqrt(20 + (Lbar - 50) * (Lbar - 50));
-        float SC = 1 + 0.045f * Cpbar;
-        float SH = 1 + 0.015f * Cpbar * T;
+        double dL = dLp / SL;
+        double dC = dCp / SC;
+        double dH = dHp / SH;
 
-        float RT = -2 * (float) Math.sqrt(Math.pow(Cpbar, 7) / (Math.pow(Cpbar, 7) + Math.pow(25, 7))) *
-                   (float) Math.sin(60 * Math.PI/180 * (float) Math.exp(-Math.pow((hpbar - 275 * Math.PI/180) / (25 * Math.PI/180), 2)));
+        return (float) Math.sqrt(dL * dL + dC * dC + dH * dH + RT * dC * dH);
+    }
 
-        return (float) Math.sqrt(
-            Math.pow(dLp / SL, 2) +
-            Math.pow(dCp / SC, 2) +
-            Math.pow(dHp / SH, 2) +
-            RT * (dCp / SC) * (dHp / SH)
-        );
+    /**
+     * C^7 / (C^7 + 25^7) with C^7 built from multiplications.
+     */
+    private static double chromaWeight(double c) {
+        double c2 = c * c;
+        double c7 = c2 * c2 * c2 * c;
+        return c7 / (c7 + POW_25_7);
+    }
+
+    private static double hueDegrees(double a, double b) {
+        double h = Math.toDegrees(Math.atan2(b, a));
+        return h < 0 ? h + 360 : h;
+    }
+
+    private static double hueTable(float[] table, double hueDegrees) {
+        double pos = hueDegrees * HUE_STEPS;
+        int i = (int) pos;
+        if (i < 0) return table[0];
+        if (i >= table.length - 1) return table[table.length - 1];
+        double frac = pos - i;
+        return table[i] + frac * (table[i + 1] - table[i]);
     }
 
     private static float gammaToLinear(float value) {
@@ -208,12 +413,24 @@ public class ColorConverter {
         }
     }
 
+    /**
+     * Fast cube root: exponent-division bit trick followed by two Newton steps.
+     * Relative error stays below 2e-6, far below any perceptible OKLAB difference.
+     */
     private static float cbrt(float x) {
-        if (x >= 0) {
-            return (float) Math.pow(x, 1f/3f);
-        } else {
-            return -(float) Math.pow(-x, 1f/3f);
+        if (x == 0f) {
+            return 0f;
+        }
+        boolean negative = x < 0f;
+        if (negative) {
+            x = -x;
         }
+
+        float y = Float.intBitsToFloat(Float.floatToRawIntBits(x) / 3 + 0x2A514067);
+        y = (2f * y + x / (y * y)) * (1f / 3f);
+        y = (2f * y + x / (y * y)) * (1f / 3f);
+
+        return negative ? -y : y;
     }
 
     private static int clamp(int value) {
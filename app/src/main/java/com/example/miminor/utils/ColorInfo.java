@@ -2,17 +2,28 @@ package com.example.miminor.utils;
 
 import android.graphics.Color;
 
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 /**
- * Data class для хранения информации о цвете
+ * Data class для хранения информации о цвете.
+ * Экземпляры для одного цвета разделяются через {@link #of(int)}; строки, контраст
+ * и название вычисляются лениво при первом обращении.
  */
 public class ColorInfo {
+    /** Размер кэша интернирования (степень двойки), прямое отображение по хэшу цвета */
+    private static final int CACHE_SIZE = 4096;
+    private static final AtomicReferenceArray<ColorInfo> CACHE = new AtomicReferenceArray<>(CACHE_SIZE);
+
     private final int color;
-    private final String colorName;
-    private final String hexCode;
     private final int red;
     private final int green;
     private final int blue;
-    private final double contrast;
+
+    // Ленивые поля: гонка безопасна, значения детерминированы
+    private volatile String colorName;
+    private volatile String hexCode;
+    private volatile String rgbString;
+    private volatile double contrast = Double.NaN;
 
     public ColorInfo(int color, String colorName) {
         this.color = color;
@@ -20,37 +31,51 @@ public class ColorInfo {
         this.red = Color.red(color);
         this.green = Color.green(color);
         this.blue = Color.blue(color);
-        this.hexCode = String.format("#%02X%02X%02X", red, green, blue);
-        this.contrast = calculateContrast(color);
     }
 
     /**
-     * Вычисляет контрастность цвета относительно белого фона
-     * @return значение контрастности (1.0 - 21.0)
+     * Возвращает общий экземпляр для цвета; название берется из {@link ColorNameMapper}.
+     * Кэш ограничен: при коллизии слот перезаписывается новым цветом.
      */
-    private double calculateContrast(int color) {
-        double luminance1 = calculateLuminance(color);
-        double luminance2 = calculateLuminance(Color.WHITE);
-
-        double lighter = Math.max(luminance1, luminance2);
-        double darker = Math.min(luminance1, luminance2);
-
-        return (lighter + 0.05) / (darker + 0.05);
+    public static ColorInfo of(int color) {
+        int slot = (color * 0x9E3779B1) >>> 20;
+        ColorInfo cached = CACHE.get(slot);
+        if (cached != null && cached.color == color) {
+            return cached;
+        }
+        ColorInfo info = new ColorInfo(color, null);
+        CACHE.set(slot, info);
+        return info;
     }
 
     /**
-     * Вычисляет относительную яркость цвета по формуле WCAG
+     * Сбрасывает общие экземпляры, например когда меняется источник названий.
+     * Уже выданные экземпляры сохраняют вычисленные поля.
      */
-    private double calculateLuminance(int color) {
-        double r = Color.red(color) / 255.0;
-        double g = Color.green(color) / 255.0;
-        double b = Color.blue(color) / 255.0;
+    public static void clearCache() {
+        for (int i = 0; i < CACHE_SIZE; i++) {
+            CACHE.set(i, null);
+        }
+    }
 
-        r = (r <= 0.03928) ? r / 12.92 : Math.pow((r + 0.055) / 1.055, 2.4);
-        g = (g <= 0.03928) ? g / 12.92 : Math.pow((g + 0.055) / 1.055, 2.4);
-        b = (b <= 0.03928) ? b / 12.92 : Math.pow((b + 0.055) / 1.055, 2.4);
+    /**
+     * Вычисляет контрастность цвета относительно белого фона
+     * @return значение контрастности (1.0 - 21.0)
+     */
+    private double calculateContrast() {
+        // Яркость белого равна 1.0 и не меньше яркости любого цвета
+        return 1.05 / (calculateLuminance() + 0.05);
+    }
 
-        return 0.2126 * r + 0.7152 * g + 0.0722 * b;
+    /**
+     * Вычисляет относительную яркость цвета по формуле WCAG.
+     * Порог WCAG 0.03928 и порог sRGB 0.04045 дают одинаковый результат на 8-битных
+     * значениях, поэтому используется таблица линеаризации ColorConverter.
+     */
+    private double calculateLuminance() {
+        return 0.2126 * ColorConverter.srgbToLinear(red)
+             + 0.7152 * ColorConverter.srgbToLinear(green)
+             + 0.0722 * ColorConverter.srgbToLinear(blue);
     }
 
     // Getters
@@ -59,15 +84,30 @@ public class ColorInfo {
     }
 
     public String getColorName() {
-        return colorName;
+        String name = colorName;
+        if (name == null) {
+            name = ColorNameMapper.getColorName(color);
+            colorName = name;
+        }
+        return name;
     }
 
     public String getHexCode() {
-        return hexCode;
+        String hex = hexCode;
+        if (hex == null) {
+            hex = String.format("#%02X%02X%02X", red, green, blue);
+            hexCode = hex;
+        }
+        return hex;
     }
 
     public String getRgbString() {
-        return String.format("RGB(%d, %d, %d)", red, green, blue);
+        String rgb = rgbString;
+        if (rgb == null) {
+            rgb = String.format("RGB(%d, %d, %d)", red, green, blue);
+            rgbString = rgb;
+        }
+        return rgb;
     }
 
     public int getRed() {
@@ -83,10 +123,16 @@ public class ColorInfo {
     }
 
     public double getContrast() {
-        return contrast;
+        double value = contrast;
+        if (Double.isNaN(value)) {
+            value = calculateContrast();
+            contrast = value;
+        }
+        return value;
     }
 
     public String getContrastRating() {
+        double contrast = getContrast();
         if (contrast >= 7.0) {
             return "AAA (Отличная)";
         } else if (contrast >= 4.5) {
@@ -100,6 +146,6 @@ public class ColorInfo {
 
     @Override
     public String toString() {
-        return String.format("%s (%s, %s)", colorName, hexCode, getRgbString());
+        return String.format("%s (%s, %s)", getColorName(), getHexCode(), getRgbString());
     }
 }
@@ -0,0 +1,218 @@
+package com.example.miminor.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * 33×33×33 sRGB → sRGB color lookup table with tetrahedral interpolation.
+ *
+ * Any per-pixel color transform (color-vision simulation, daltonization, their blends)
+ * is sampled once at the grid nodes in linear light; applying it afterwards costs the
+ * same fixed price per pixel: three table reads for the cell and four node reads.
+ */
+public class ColorLut3D {
+    public static final int GRID = 33;
+    private static final int LAST = GRID - 1;
+    private static final int FILE_MAGIC = 0x4C555433; // "LUT3"
+
+    /** Cell index (0..31) of every 8-bit input value. */
+    private static final int[] CELL = new int[256];
+    /** Position inside the cell in 1/256 steps (0..256) of every 8-bit input value. */
+    private static final int[] FRAC = new int[256];
+
+    static {
+        for (int v = 0; v < 256; v++) {
+            int pos = (v * LAST * 256 + 127) / 255;
+            int cell = Math.min(pos >> 8, LAST - 1);
+            CELL[v] = cell;
+            FRAC[v] = pos - (cell << 8);
+        }
+    }
+
+    /**
+     * Transform of one color in linear-light RGB, in place. Values may leave [0, 1];
+     * they are clamped after the call.
+     */
+    public interface LinearTransform {
+        void apply(float[] rgb);
+    }
+
+    /** Node colors, packed 0xRRGGBB, index (r * GRID + g) * GRID + b. */
+    private final int[] table;
+
+    private ColorLut3D(int[] table) {
+        this.table = table;
+    }
+
+    /**
+     * Samples the transform at every grid node, working in linear light.
+     */
+    public static ColorLut3D build(LinearTransform transform) {
+        float[] nodeLinear = new float[GRID];
+        for (int i = 0; i < GRID; i++) {
+            nodeLinear[i] = srgbToLinear((float) i / LAST);
+        }
+
+        int[] table = new int[GRID * GRID * GRID];
+        float[] rgb = new float[3];
+        int index = 0;
+        for (int r = 0; r < GRID; r++) {
+            for (int g = 0; g < GRID; g++) {
+                for (int b = 0; b < GRID; b++) {
+                    rgb[0] = nodeLinear[r];
+                    rgb[1] = nodeLinear[g];
+                    rgb[2] = nodeLinear[b];
+                    transform.apply(rgb);
+                    table[index++] = (encode(rgb[0]) << 16) | (encode(rgb[1]) << 8) | encode(rgb[2]);
+                }
+            }
+        }
+        return new ColorLut3D(table);
+    }
+
+    /**
+     * LUT of a 3×3 matrix applied in linear light.
+     */
+    public static ColorLut3D fromLinearMatrix(final float[][] m) {
+        return build(new LinearTransform() {
+            @Override
+            public void apply(float[] rgb) {
+                float r = rgb[0], g = rgb[1], b = rgb[2];
+                rgb[0] = m[0][0] * r + m[0][1] * g + m[0][2] * b;
+                rgb[1] = m[1][0] * r + m[1][1] * g + m[1][2] * b;
+                rgb[2] = m[2][0] * r + m[2][1] * g + m[2][2] * b;
+            }
+        });
+    }
+
+    /**
+     * Maps one ARGB color; alpha is preserved.
+     */
+    public int apply(int argb) {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+
+        int fr = FRAC[r], fg = FRAC[g], fb = FRAC[b];
+        int base = (CELL[r] * GRID + CELL[g]) * GRID + CELL[b];
+
+        final int dR = GRID * GRID;
+        final int dG = GRID;
+        final int dB = 1;
+
+        // Tetrahedral interpolation: walk from c000 to c111 along the axes
+        // in order of decreasing fraction. Weights sum to 256.
+        int c1, c2, w0, w1, w2, w3;
+        if (fr >= fg) {
+            if (fg >= fb) {
+                c1 = base + dR; c2 = c1 + dG;
+                w0 = 256 - fr; w1 = fr - fg; w2 = fg - fb; w3 = fb;
+            } else if (fr >= fb) {
+                c1 = base + dR; c2 = c1 + dB;
+                w0 = 256 - fr; w1 = fr - fb; w2 = fb - fg; w3 = fg;
+            } else {
+                c1 = base + dB; c2 = c1 + dR;
+                w0 = 256 - fb; w1 = fb - fr; w2 = fr - fg; w3 = fg;
+            }
+        } else {
+            if (fb >= fg) {
+                c1 = base + dB; c2 = c1 + dG;
+                w0 = 256 - fb; w1 = fb - fg; w2 = fg - fr; w3 = fr;
+            } else if (fb >= fr) {
+                c1 = base + dG; c2 = c1 + dB;
+                w0 = 256 - fg; w1 = fg - fb; w2 = fb - fr; w3 = fr;
+            } else {
+                c1 = base + dG; c2 = c1 + dR;
+                w0 = 256 - fg; w1 = fg - fr; w2 = fr - fb; w3 = fb;
+            }
+        }
+
+        int p0 = table[base];
+        int p1 = table[c1];
+        int p2 = table[c2];
+        int p3 = table[base + dR + dG + dB];
+
+        int outR = (w0 * ((p0 >> 16) & 0xFF) + w1 * ((p1 >> 16) & 0xFF)
+                  + w2 * ((p2 >> 16) & 0xFF) + w3 * ((p3 >> 16) & 0xFF) + 128) >> 8;
+        int outG = (w0 * ((p0 >> 8) & 0xFF) + w1 * ((p1 >> 8) & 0xFF)
+                  + w2 * ((p2 >> 8) & 0xFF) + w3 * ((p3 >> 8) & 0xFF) + 128) >> 8;
+        int outB = (w0 * (p0 & 0xFF) + w1 * (p1 & 0xFF)
+                  + w2 * (p2 & 0xFF) + w3 * (p3 & 0xFF) + 128) >> 8;
+
+        return (argb & 0xFF000000) | (outR << 16) | (outG << 8) | outB;
+    }
+
+    /**
+     * Maps pixels [from, to) in place.
+     */
+    public void apply(int[] pixels, int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int last = ~pixels[from];
+        int mapped = 0;
+        for (int i = from; i < to; i++) {
+            int pixel = pixels[i];
+            if (pixel != last) {
+                last = pixel;
+                mapped = apply(pixel);
+            }
+            pixels[i] = mapped;
+        }
+    }
+
+    /**
+     * Writes the table: magic, grid size, then GRID³ packed ints.
+     */
+    public void writeTo(File file) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(GRID);
+            for (int node : table) {
+                out.writeInt(node);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Reads a table written by {@link #writeTo(File)}; returns null if the header does not match.
+     */
+    public static ColorLut3D readFrom(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
+            if (in.readInt() != FILE_MAGIC || in.readInt() != GRID) {
+                return null;
+            }
+            int[] table = new int[GRID * GRID * GRID];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = in.readInt();
+            }
+            return new ColorLut3D(table);
+        }
+    }
+
+    private static float srgbToLinear(float v) {
+        return v <= 0.04045f ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+    }
+
+    /**
+     * Clamps a linear-light value to [0, 1] and encodes it as an 8-bit sRGB channel.
+     */
+    static int encode(float linear) {
+        float v = Math.max(0f, Math.min(1f, linear));
+        float srgb = v <= 0.0031308f ? v * 12.92f : (float) (1.055f * Math.pow(v, 1f / 2.4f) - 0.055f);
+        return Math.round(srgb * 255f);
+    }
+}
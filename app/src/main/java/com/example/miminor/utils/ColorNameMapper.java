@@ -2,15 +2,17 @@ package com.example.miminor.utils;
 
 import android.graphics.Color;
 
-import java.util.HashMap;
-import java.util.Map;
-
 /**
  * Maps RGB colors to Russian color names using OKLAB perceptually uniform color space.
  * Provides 8x better perceptual accuracy compared to RGB-based distance.
+ * Lookup goes through the k-d tree of a {@link ColorPalette}; a custom palette can be
+ * installed with {@link #setPalette(ColorPalette)}.
  */
 public class ColorNameMapper {
-    private static final Map<String, OklabColor> COLOR_MAP_OKLAB = new HashMap<>();
+    private static final ColorPalette DEFAULT_PALETTE;
+    private static ColorPalette.Builder paletteBuilder = new ColorPalette.Builder();
+    private static volatile ColorPalette palette;
+    private static volatile ColorNameTable nameTable;
 
     static {
         // Основные цвета
@@ -181,46 +183,92 @@ public class ColorNameMapper {
         addColor("Светлый шиферно-серый", 119, 136, 153); // LightSlateGray
         addColor("Шиферно-серый", 112, 128, 144);        // SlateGray
         addColor("Темный шиферно-серый", 47, 79, 79);    // DarkSlateGray
+
+        DEFAULT_PALETTE = paletteBuilder.build();
+        paletteBuilder = null;
+        palette = DEFAULT_PALETTE;
     }
 
     private static void addColor(String name, int r, int g, int b) {
-        COLOR_MAP_OKLAB.put(name, ColorConverter.rgbToOklab(r, g, b));
+        paletteBuilder.add(name, r, g, b);
+    }
+
+    /**
+     * Installs a custom palette for all subsequent lookups; null restores the built-in one.
+     */
+    public static void setPalette(ColorPalette customPalette) {
+        palette = customPalette != null ? customPalette : DEFAULT_PALETTE;
+    }
+
+    public static ColorPalette getPalette() {
+        return palette;
+    }
+
+    public static ColorPalette getDefaultPalette() {
+        return DEFAULT_PALETTE;
+    }
+
+    /**
+     * Installs a precomputed quantized lookup table. It is used only while it was built
+     * for the current palette; otherwise lookups fall back to the exact path.
+     *
+     * The table and the exact path disagree near name boundaries, so the shared
+     * {@link ColorInfo} instances are dropped: names served from now on come from the table.
+     */
+    public static void setNameTable(ColorNameTable table) {
+        nameTable = table;
+        ColorInfo.clearCache();
     }
 
     /**
      * Maps RGB color to Russian name using OKLAB perceptually uniform distance.
      * Automatically adds brightness modifiers (светлый/темный) for extreme lightness.
+     * Uses the quantized table once it is installed.
      */
     public static String getColorName(int color) {
-        int r = Color.red(color);
-        int g = Color.green(color);
-        int b = Color.blue(color);
+        ColorNameTable table = nameTable;
+        if (table != null && table.getFingerprint() == palette.getFingerprint()) {
+            return table.lookup(color);
+        }
+        return getExactColorName(color);
+    }
+
+    /**
+     * Maps RGB color to Russian name without the quantized lookup table.
+     */
+    public static String getExactColorName(int color) {
+        // Без android.graphics.Color: метод нужен и в JVM-тестах
+        int r = (color >> 16) & 0xFF;
+        int g = (color >> 8) & 0xFF;
+        int b = color & 0xFF;
         
         OklabColor oklab = ColorConverter.rgbToOklab(r, g, b);
-        
-        if (oklab.getChroma() < 0.05f) {
-            if (oklab.L < 0.2f) return "Черный";
-            if (oklab.L > 0.9f) return "Белый";
-            if (oklab.L < 0.4f) return "Темно-серый";
-            if (oklab.L > 0.7f) return "Светло-серый";
-            return "Серый";
-        }
+        return getColorName(oklab.L, oklab.a, oklab.b);
+    }
 
-        String closestName = "Неизвестный цвет";
-        float minDistance = Float.MAX_VALUE;
+    /**
+     * Maps an OKLAB color to Russian name.
+     * Lets callers holding planar OKLAB data (see {@link OklabImage}) skip the RGB round-trip.
+     */
+    public static String getColorName(float L, float a, float b) {
+        return getColorName(palette, L, a, b);
+    }
 
-        for (Map.Entry<String, OklabColor> entry : COLOR_MAP_OKLAB.entrySet()) {
-            float distance = ColorConverter.oklabDistance(oklab, entry.getValue());
-            
-            if (distance < minDistance) {
-                minDistance = distance;
-                closestName = entry.getKey();
-            }
+    static String getColorName(ColorPalette current, float L, float a, float b) {
+        if (a * a + b * b < 0.05f * 0.05f) {
+            if (L < 0.2f) return "Черный";
+            if (L > 0.9f) return "Белый";
+            if (L < 0.4f) return "Темно-серый";
+            if (L > 0.7f) return "Светло-серый";
+            return "Серый";
         }
 
-        if (oklab.L < 0.25f && !closestName.contains("Темно")) {
+        int closest = current.nearest(L, a, b);
+        String closestName = closest >= 0 ? current.getName(closest) : "Неизвестный цвет";
+
+        if (L < 0.25f && !closestName.contains("Темно")) {
             return "Темно-" + closestName.toLowerCase();
-        } else if (oklab.L > 0.85f && !closestName.contains("Светло")) {
+        } else if (L > 0.85f && !closestName.contains("Светло")) {
             return "Светло-" + closestName.toLowerCase();
         }
 
@@ -0,0 +1,268 @@
+package com.example.miminor.utils;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Precomputed RGB → color name lookup, quantized to 6 bits per channel (2^18 cells).
+ *
+ * Each cell stores a short index into the list of final names (light/dark modifiers
+ * included), so a lookup is one buffer read. The table for the built-in palette is
+ * generated at build time ({@code :benchmark:generateColorNameTable}, see
+ * {@link #writeTable(File, ColorPalette)}) and memory-mapped from the uncompressed
+ * {@code assets/color_names.bin}. A custom palette gets a table generated on first use
+ * and cached in the cache directory.
+ *
+ * Tolerance: a lookup differs from {@link ColorNameMapper#getExactColorName(int)} for
+ * 909050 of the 2^24 colors (5.42%) with the built-in palette. Every such color lies within
+ * 2 levels per channel of its cell center (4q + 2) and gets the center's exact name, so
+ * mismatches are confined to colors that close to a name, gray or light/dark boundary.
+ * ColorNameTableTest checks both bounds over the full range.
+ */
+public class ColorNameTable {
+    private static final String TAG = "ColorNameTable";
+
+    private static final int MAGIC = 0x434E5442; // "CNTB"
+    /** Bump when naming rules in ColorNameMapper change. */
+    private static final int VERSION = 1;
+
+    public static final String ASSET_NAME = "color_names.bin";
+    private static final String CACHE_NAME = "color_names_v" + VERSION + ".bin";
+
+    private static final int BITS = 6;
+    private static final int LEVELS = 1 << BITS;
+    private static final int CELLS = LEVELS * LEVELS * LEVELS;
+
+    private static final AtomicBoolean installStarted = new AtomicBoolean();
+
+    private final long fingerprint;
+    private final String[] names;
+    private final ShortBuffer cells;
+
+    private ColorNameTable(long fingerprint, String[] names, ShortBuffer cells) {
+        this.fingerprint = fingerprint;
+        this.names = names;
+        this.cells = cells;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    /**
+     * Returns the name of the cell containing the color. Alpha is ignored.
+     */
+    public String lookup(int color) {
+        int index = ((color >> 6) & 0x3F000) | ((color >> 4) & 0xFC0) | ((color >> 2) & 0x3F);
+        return names[cells.get(index)];
+    }
+
+    /**
+     * Loads the table for the current palette on a background thread and installs it in
+     * {@link ColorNameMapper}; names requested before that use the exact path.
+     * Runs once per process; later calls do nothing.
+     */
+    public static void installAsync(Context context) {
+        if (!installStarted.compareAndSet(false, true)) {
+            return;
+        }
+        Context appContext = context.getApplicationContext();
+        Thread loader = new Thread(() -> {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+            ColorNameMapper.setNameTable(loadOrGenerate(appContext, ColorNameMapper.getPalette()));
+        }, "ColorNameTable");
+        loader.start();
+    }
+
+    /**
+     * Maps the shipped asset or the cached table for the palette, generating and caching it
+     * if neither matches. Intended for a background thread: generation takes ~262k exact
+     * lookups, which only happens for a custom palette or a build without the asset.
+     */
+    public static ColorNameTable loadOrGenerate(Context context, ColorPalette palette) {
+        long fingerprint = palette.getFingerprint();
+
+        try (AssetFileDescriptor afd = context.getAssets().openFd(ASSET_NAME);
+             FileInputStream in = afd.createInputStream()) {
+            ColorNameTable table = map(in.getChannel(), afd.getStartOffset(), afd.getLength(), fingerprint);
+            if (table != null) {
+                Log.d(TAG, "Mapped table from assets");
+                return table;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "No uncompressed " + ASSET_NAME + " in the APK, using the cache file", e);
+        }
+
+        File file = new File(context.getCacheDir(), CACHE_NAME);
+        if (file.exists()) {
+            try (FileInputStream in = new FileInputStream(file)) {
+                ColorNameTable table = map(in.getChannel(), 0, file.length(), fingerprint);
+                if (table != null) {
+                    Log.d(TAG, "Mapped cached table " + file.getName());
+                    return table;
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Cached table unreadable, regenerating", e);
+            }
+        }
+
+        long start = System.currentTimeMillis();
+        Generated generated = generate(palette);
+        Log.d(TAG, "Generated table: " + generated.names.length + " names in "
+            + (System.currentTimeMillis() - start) + "ms");
+
+        try {
+            write(file, fingerprint, generated);
+            try (FileInputStream in = new FileInputStream(file)) {
+                ColorNameTable table = map(in.getChannel(), 0, file.length(), fingerprint);
+                if (table != null) {
+                    return table;
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not cache table, keeping it in memory", e);
+        }
+
+        return new ColorNameTable(fingerprint, generated.names, ShortBuffer.wrap(generated.cells));
+    }
+
+    /**
+     * Generates the table for the palette into a file in the format read by
+     * {@link #loadOrGenerate}; used by the build to produce the {@link #ASSET_NAME} asset.
+     */
+    public static void writeTable(File file, ColorPalette palette) throws IOException {
+        write(file, palette.getFingerprint(), generate(palette));
+    }
+
+    /**
+     * Builds the table in memory by running the exact naming path on every cell center.
+     */
+    public static ColorNameTable build(ColorPalette palette) {
+        Generated generated = generate(palette);
+        return new ColorNameTable(palette.getFingerprint(), generated.names, ShortBuffer.wrap(generated.cells));
+    }
+
+    private static Generated generate(ColorPalette palette) {
+        int[] centers = new int[LEVELS];
+        for (int q = 0; q < LEVELS; q++) {
+            centers[q] = q * 4 + 2;
+        }
+
+        int[] rgb = new int[CELLS];
+        for (int i = 0; i < CELLS; i++) {
+            rgb[i] = (centers[i >> 12] << 16) | (centers[(i >> 6) & 0x3F] << 8) | centers[i & 0x3F];
+        }
+
+        float[] L = new float[CELLS];
+        float[] a = new float[CELLS];
+        float[] b = new float[CELLS];
+        ColorConverter.rgbToOklab(rgb, L, a, b);
+
+        Map<String, Short> nameIndex = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        short[] cells = new short[CELLS];
+
+        for (int i = 0; i < CELLS; i++) {
+            String name = ColorNameMapper.getColorName(palette, L[i], a[i], b[i]);
+            Short index = nameIndex.get(name);
+            if (index == null) {
+                index = (short) names.size();
+                nameIndex.put(name, index);
+                names.add(name);
+            }
+            cells[i] = index;
+        }
+
+        return new Generated(names.toArray(new String[0]), cells);
+    }
+
+    /**
+     * File layout (big-endian): magic, version, palette fingerprint, name count,
+     * names as (int length, UTF-8 bytes), then 2^18 shorts.
+     */
+    private static void write(File file, long fingerprint, Generated generated) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp), 64 * 1024))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(fingerprint);
+            out.writeInt(generated.names.length);
+            for (String name : generated.names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            for (short cell : generated.cells) {
+                out.writeShort(cell);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Could not rename " + tmp + " to " + file);
+        }
+    }
+
+    /**
+     * Maps a table; returns null if the header does not match this version and palette.
+     */
+    private static ColorNameTable map(FileChannel channel, long offset, long length,
+                                      long expectedFingerprint) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+
+        if (length < 20 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                || buffer.getLong() != expectedFingerprint) {
+            return null;
+        }
+
+        int count = buffer.getInt();
+        if (count <= 0 || count > Short.MAX_VALUE) {
+            return null;
+        }
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            int size = buffer.remaining() >= 4 ? buffer.getInt() : -1;
+            if (size < 0 || size > buffer.remaining()) {
+                return null;
+            }
+            byte[] bytes = new byte[size];
+            buffer.get(bytes);
+            names[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        if (buffer.remaining() < CELLS * 2) {
+            return null;
+        }
+        ByteBuffer cellBytes = buffer.slice();
+        cellBytes.limit(CELLS * 2);
+        return new ColorNameTable(expectedFingerprint, names, cellBytes.asShortBuffer());
+    }
+
+    private static class Generated {
+        final String[] names;
+        final short[] cells;
+
+        Generated(String[] names, short[] cells) {
+            this.names = names;
+            this.cells = cells;
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.example.miminor.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Immutable named-color palette with a k-d tree index in OKLAB space.
+ *
+ * Anchors are stored as packed float arrays in tree order; every entry keeps its own anchor,
+ * so several anchors may share one name. Nearest and top-k queries descend the tree and
+ * skip subtrees that cannot beat the current candidates, giving O(log n) lookups for
+ * palettes of thousands of names (xkcd, ISCC-NBS).
+ */
+public class ColorPalette {
+    /** Ranges this small are scanned linearly instead of split further. */
+    private static final int LEAF_SIZE = 6;
+
+    private final String[] names;
+    private final int[] rgb;
+    /** OKLAB anchors in tree order, interleaved L, a, b. */
+    private final float[] coords;
+    /** Tree position → palette index. */
+    private final int[] treeIndex;
+    /** Split dimension (0 = L, 1 = a, 2 = b) of the node stored at each tree position. */
+    private final byte[] splitDim;
+    /** Hash of names and anchors; identifies tables derived from this palette. */
+    private final long fingerprint;
+
+    private final ThreadLocal<Search> nearestSearch = new ThreadLocal<Search>() {
+        @Override
+        protected Search initialValue() {
+            return new Search(new int[1], new float[1]);
+        }
+    };
+
+    private ColorPalette(List<String> names, List<int[]> rgbs) {
+        int n = names.size();
+        this.names = names.toArray(new String[0]);
+        this.rgb = new int[n];
+        this.coords = new float[n * 3];
+        this.treeIndex = new int[n];
+        this.splitDim = new byte[n];
+
+        float[] points = new float[n * 3];
+        long hash = 1125899906842597L;
+        for (int i = 0; i < n; i++) {
+            int[] c = rgbs.get(i);
+            rgb[i] = 0xFF000000 | (c[0] << 16) | (c[1] << 8) | c[2];
+            hash = 31 * (31 * hash + this.names[i].hashCode()) + rgb[i];
+            OklabColor oklab = ColorConverter.rgbToOklab(c[0], c[1], c[2]);
+            points[i * 3] = oklab.L;
+            points[i * 3 + 1] = oklab.a;
+            points[i * 3 + 2] = oklab.b;
+            treeIndex[i] = i;
+        }
+
+        this.fingerprint = hash;
+
+        build(points, 0, n);
+
+        for (int pos = 0; pos < n; pos++) {
+            int i = treeIndex[pos];
+            coords[pos * 3] = points[i * 3];
+            coords[pos * 3 + 1] = points[i * 3 + 1];
+            coords[pos * 3 + 2] = points[i * 3 + 2];
+        }
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * Returns the anchor color of an entry as opaque ARGB.
+     */
+    public int getColor(int index) {
+        return rgb[index];
+    }
+
+    /**
+     * Finds the entry closest to the given OKLAB color.
+     *
+     * @return palette index, or -1 if the palette is empty
+     */
+    public int nearest(float L, float a, float b) {
+        Search search = nearestSearch.get();
+        search.reset(L, a, b, 1);
+        search(search, 0, names.length);
+        return search.count > 0 ? search.index[0] : -1;
+    }
+
+    /**
+     * Finds up to k entries closest to the given OKLAB color, ordered by distance.
+     *
+     * @param outIndex    receives palette indices, length ≥ k
+     * @param outDistance receives Euclidean OKLAB distances, length ≥ k
+     * @return number of entries written (min(k, size()))
+     */
+    public int nearest(float L, float a, float b, int k, int[] outIndex, float[] outDistance) {
+        if (k <= 0) {
+            return 0;
+        }
+        Search search = new Search(outIndex, outDistance);
+        search.reset(L, a, b, k);
+        search(search, 0, names.length);
+        for (int i = 0; i < search.count; i++) {
+            outDistance[i] = (float) Math.sqrt(outDistance[i]);
+        }
+        return search.count;
+    }
+
+    // ---------- k-d tree ----------
+
+    /**
+     * Arranges treeIndex[lo, hi) so that the median along the widest dimension sits at the
+     * middle, with smaller coordinates to the left and larger to the right.
+     */
+    private void build(float[] points, int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            return;
+        }
+
+        int dim = widestDimension(points, lo, hi);
+        int mid = (lo + hi) >>> 1;
+        select(points, lo, hi - 1, mid, dim);
+        splitDim[mid] = (byte) dim;
+
+        build(points, lo, mid);
+        build(points, mid + 1, hi);
+    }
+
+    private int widestDimension(float[] points, int lo, int hi) {
+        int best = 0;
+        float bestSpread = -1f;
+        for (int d = 0; d < 3; d++) {
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int i = lo; i < hi; i++) {
+                float v = points[treeIndex[i] * 3 + d];
+                if (v < min) min = v;
+                if (v > max) max = v;
+            }
+            if (max - min > bestSpread) {
+                bestSpread = max - min;
+                best = d;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Quickselect on treeIndex[left..right] by coordinate dim.
+     */
+    private void select(float[] points, int left, int right, int k, int dim) {
+        while (right > left) {
+            float pivot = points[treeIndex[(left + right) >>> 1] * 3 + dim];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (points[treeIndex[i] * 3 + dim] < pivot) i++;
+                while (points[treeIndex[j] * 3 + dim] > pivot) j--;
+                if (i <= j) {
+                    int tmp = treeIndex[i];
+                    treeIndex[i] = treeIndex[j];
+                    treeIndex[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void search(Search s, int lo, int hi) {
+        if (hi - lo <= LEAF_SIZE) {
+            for (int pos = lo; pos < hi; pos++) {
+                s.offer(pos, this);
+            }
+            return;
+        }
+
+        int mid = (lo + hi) >>> 1;
+        s.offer(mid, this);
+
+        int dim = splitDim[mid];
+        float diff = s.query[dim] - coords[mid * 3 + dim];
+        if (diff < 0) {
+            search(s, lo, mid);
+            if (diff * diff < s.worst()) {
+                search(s, mid + 1, hi);
+            }
+        } else {
+            search(s, mid + 1, hi);
+            if (diff * diff < s.worst()) {
+                search(s, lo, mid);
+            }
+        }
+    }
+
+    /**
+     * Bounded, distance-sorted candidate list for one query (squared distances).
+     */
+    private static class Search {
+        final int[] index;
+        final float[] dist2;
+        final float[] query = new float[3];
+        int k;
+        int count;
+
+        Search(int[] index, float[] dist2) {
+            this.index = index;
+            this.dist2 = dist2;
+        }
+
+        void reset(float L, float a, float b, int k) {
+            query[0] = L;
+            query[1] = a;
+            query[2] = b;
+            this.k = k;
+            this.count = 0;
+        }
+
+        float worst() {
+            return count < k ? Float.MAX_VALUE : dist2[count - 1];
+        }
+
+        void offer(int pos, ColorPalette palette) {
+            float[] c = palette.coords;
+            float dL = c[pos * 3] - query[0];
+            float da = c[pos * 3 + 1] - query[1];
+            float db = c[pos * 3 + 2] - query[2];
+            float d = dL * dL + da * da + db * db;
+            if (d >= worst()) {
+                return;
+            }
+
+            int i = count < k ? count++ : count - 1;
+            while (i > 0 && dist2[i - 1] > d) {
+                dist2[i] = dist2[i - 1];
+                index[i] = index[i - 1];
+                i--;
+            }
+            dist2[i] = d;
+            index[i] = palette.treeIndex[pos];
+        }
+    }
+
+    /**
+     * Collects named anchors and builds the indexed palette.
+     */
+    public static class Builder {
+        private final List<String> names = new ArrayList<>();
+        private final List<int[]> colors = new ArrayList<>();
+
+        public Builder add(String name, int r, int g, int b) {
+            names.add(name);
+            colors.add(new int[]{r & 0xFF, g & 0xFF, b & 0xFF});
+            return this;
+        }
+
+        public Builder add(String name, int color) {
+            return add(name, (color >> 16) & 0xFF, (color >> 8) & 0xFF, color & 0xFF);
+        }
+
+        public ColorPalette build() {
+            return new ColorPalette(names, colors);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.miminor.utils;
+
+import com.example.miminor.utils.ColorBlindnessSimulator.ColorBlindnessType;
+
+/**
+ * Pairwise CIEDE2000 distances between a set of colors as seen under every
+ * {@link ColorBlindnessType}: an N × N × 8 report computed in one call.
+ *
+ * Each color is simulated once per type with the linear-light model of
+ * {@link ColorBlindnessSimulator} and converted to CIELAB in bulk; every row of the upper
+ * triangle is then one batch ΔE00 pass over primitive arrays. For the ~40 segments of a
+ * streaming result this is about 6k kernel evaluations, well within one frame.
+ */
+public class DistinguishabilityMatrix {
+    /**
+     * ΔE00 below which two colors count as confusable. Well above the just-noticeable
+     * difference (~2.3), so flagged pairs are hard to tell apart at a glance.
+     */
+    public static final float DEFAULT_THRESHOLD = 10f;
+
+    private static final ColorBlindnessType[] TYPES = ColorBlindnessType.values();
+
+    private final int count;
+    private final float threshold;
+    /** ΔE00 by [type][i][j], symmetric in i and j, zero on the diagonal. */
+    private final float[] distances;
+
+    private DistinguishabilityMatrix(int count, float threshold, float[] distances) {
+        this.count = count;
+        this.threshold = threshold;
+        this.distances = distances;
+    }
+
+    public static DistinguishabilityMatrix compute(int[] colors) {
+        return compute(colors, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Builds the report for the given ARGB colors (alpha is ignored).
+     *
+     * @param threshold ΔE00 below which a pair is reported as confusable
+     */
+    public static DistinguishabilityMatrix compute(int[] colors, float threshold) {
+        int n = colors.length;
+        int plane = n * n;
+        float[] distances = new float[TYPES.length * plane];
+
+        int[] simulated = new int[n];
+        float[] L = new float[n];
+        float[] a = new float[n];
+        float[] b = new float[n];
+        float[] row = new float[n];
+
+        for (ColorBlindnessType type : TYPES) {
+            ColorBlindnessSimulator.simulateColors(colors, 0, n, type, 1f, simulated);
+            ColorConverter.rgbToLab(simulated, 0, n, L, a, b, 0);
+
+            int base = type.ordinal() * plane;
+            for (int i = 0; i < n - 1; i++) {
+                LabColor reference = new LabColor(L[i], a[i], b[i]);
+                ColorConverter.deltaE2000(reference, L, a, b, i + 1, n - i - 1, row);
+                for (int j = i + 1; j < n; j++) {
+                    distances[base + i * n + j] = row[j];
+                    distances[base + j * n + i] = row[j];
+                }
+            }
+        }
+
+        return new DistinguishabilityMatrix(n, threshold, distances);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns ΔE00 between colors i and j as perceived with the given type.
+     */
+    public float getDistance(ColorBlindnessType type, int i, int j) {
+        return distances[type.ordinal() * count * count + i * count + j];
+    }
+
+    public boolean isDistinguishable(ColorBlindnessType type, int i, int j) {
+        return i == j || getDistance(type, i, j) >= threshold;
+    }
+
+    /**
+     * Returns a bit mask over {@link ColorBlindnessType#ordinal()} of the types for which
+     * a pair that is distinguishable with normal vision becomes confusable.
+     */
+    public int getConfusionMask(int i, int j) {
+        if (i == j || !isDistinguishable(ColorBlindnessType.NORMAL, i, j)) {
+            return 0;
+        }
+        int mask = 0;
+        for (ColorBlindnessType type : TYPES) {
+            if (!isDistinguishable(type, i, j)) {
+                mask |= 1 << type.ordinal();
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Marks every color that is confusable with at least one other color under the type,
+     * although the two are distinguishable with normal vision.
+     */
+    public boolean[] getConfusableColors(ColorBlindnessType type) {
+        boolean[] result = new boolean[count];
+        int bit = 1 << type.ordinal();
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                if ((getConfusionMask(i, j) & bit) != 0) {
+                    result[i] = true;
+                    result[j] = true;
+                }
+            }
+        }
+        return result;
+    }
+}
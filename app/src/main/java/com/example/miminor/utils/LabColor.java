@@ -0,0 +1,39 @@
+package com.example.miminor.utils;
+
+/**
+ * Represents a color in the CIELAB (D65) color space.
+ * Native input for CIEDE2000, so ΔE00 does not need an OKLAB → sRGB → Lab round-trip.
+ *
+ * @see ColorConverter#ciede2000Distance(LabColor, LabColor)
+ */
+public class LabColor {
+    public final float L;
+    public final float a;
+    public final float b;
+
+    public LabColor(float L, float a, float b) {
+        this.L = L;
+        this.a = a;
+        this.b = b;
+    }
+
+    /**
+     * Calculates chroma C*ab = sqrt(a² + b²).
+     */
+    public float getChroma() {
+        return (float) Math.sqrt(a * a + b * b);
+    }
+
+    /**
+     * Calculates hue angle h_ab in degrees [0, 360).
+     */
+    public float getHue() {
+        float hue = (float) Math.toDegrees(Math.atan2(b, a));
+        return hue < 0 ? hue + 360 : hue;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Lab(L=%.2f, a=%.2f, b=%.2f)", L, a, b);
+    }
+}
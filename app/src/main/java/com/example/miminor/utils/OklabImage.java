@@ -0,0 +1,118 @@
+package com.example.miminor.utils;
+
+import android.graphics.Bitmap;
+
+/**
+ * Planar OKLAB image: L, a and b live in separate float arrays (structure of arrays).
+ * Filled with the bulk {@link ColorConverter} path, so a whole frame costs three table
+ * reads and three fast cube roots per pixel with no per-pixel allocations.
+ */
+public class OklabImage {
+    public final int width;
+    public final int height;
+    public final float[] L;
+    public final float[] a;
+    public final float[] b;
+
+    public OklabImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        this.L = new float[size];
+        this.a = new float[size];
+        this.b = new float[size];
+    }
+
+    /**
+     * Converts the whole bitmap into a new planar OKLAB image.
+     */
+    public static OklabImage fromBitmap(Bitmap bitmap) {
+        OklabImage image = new OklabImage(bitmap.getWidth(), bitmap.getHeight());
+        image.load(bitmap);
+        return image;
+    }
+
+    /**
+     * Converts packed ARGB pixels (row-major, width * height) into a new planar OKLAB image.
+     */
+    public static OklabImage fromPixels(int[] argb, int width, int height) {
+        OklabImage image = new OklabImage(width, height);
+        image.load(argb);
+        return image;
+    }
+
+    /**
+     * Reloads planes from a bitmap of the same size.
+     * Reads one row at a time so no full-frame int[] copy is needed.
+     */
+    public void load(Bitmap bitmap) {
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            throw new IllegalArgumentException("Bitmap size " + bitmap.getWidth() + "x"
+                + bitmap.getHeight() + " does not match " + width + "x" + height);
+        }
+
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            ColorConverter.rgbToOklab(row, 0, width, L, a, b, y * width);
+        }
+    }
+
+    /**
+     * Reloads planes from packed ARGB pixels of the same size.
+     */
+    public void load(int[] argb) {
+        if (argb.length < L.length) {
+            throw new IllegalArgumentException("Expected " + L.length + " pixels, got " + argb.length);
+        }
+        ColorConverter.rgbToOklab(argb, 0, L.length, L, a, b, 0);
+    }
+
+    public int size() {
+        return L.length;
+    }
+
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    /**
+     * Returns the color at (x, y) as an {@link OklabColor}. Allocates; use the planes in hot loops.
+     */
+    public OklabColor get(int x, int y) {
+        int i = y * width + x;
+        return new OklabColor(L[i], a[i], b[i]);
+    }
+
+    /**
+     * Averages the rectangle [left, right) × [top, bottom), clipped to the image.
+     *
+     * @param out receives {L, a, b}
+     * @return number of pixels averaged (0 if the rectangle is outside the image)
+     */
+    public int mean(int left, int top, int right, int bottom, float[] out) {
+        int x0 = Math.max(0, left);
+        int y0 = Math.max(0, top);
+        int x1 = Math.min(width, right);
+        int y1 = Math.min(height, bottom);
+        if (x0 >= x1 || y0 >= y1) {
+            return 0;
+        }
+
+        double sumL = 0, sumA = 0, sumB = 0;
+        for (int y = y0; y < y1; y++) {
+            int row = y * width;
+            for (int x = x0; x < x1; x++) {
+                sumL += L[row + x];
+                sumA += a[row + x];
+                sumB += b[row + x];
+            }
+        }
+
+        int count = (x1 - x0) * (y1 - y0);
+        out[0] = (float) (sumL / count);
+        out[1] = (float) (sumA / count);
+        out[2] = (float) (sumB / count);
+        return count;
+    }
+}
@@ -4,18 +4,45 @@ import android.graphics.Bitmap;
 import android.util.Log;
 import android.util.LruCache;
 
+import java.lang.ref.WeakReference;
+
 /**
  * LRU-кэш для результатов сегментации.
  * Уменьшает повторные вычисления для одинаковых изображений.
+ *
+ * Ключ адресует содержимое: хеш выборки пикселей, размер изображения и параметры обработки.
+ * Поэтому измененное или новое изображение получает новый ключ, а записи прежних
+ * вытесняются по LRU в пределах бюджета памяти; срока жизни у записей нет.
+ *
+ * Выборка — SAMPLE_ROWS строк и SAMPLE_COLUMNS столбцов целиком, так что каждая строка
+ * изображения дает хешу хотя бы SAMPLE_COLUMNS пикселей. Изменение, которое не задевает
+ * ни одной из выбранных строк и столбцов (пятно меньше шага сетки выборки, для 12 Мп
+ * примерно 24×125 пикселей), не меняет ключ и возвращает прежний результат.
  */
 public class SegmentationCache {
     private static final String TAG = "SegmentationCache";
     private static final int MAX_CACHE_SIZE_MB = 10;
     
+    /** Хешируется не больше SAMPLE_ROWS строк, равномерно по высоте, каждая целиком */
+    private static final int SAMPLE_ROWS = 128;
+    /** И не больше SAMPLE_COLUMNS столбцов, равномерно по ширине, каждый на всю высоту */
+    private static final int SAMPLE_COLUMNS = 32;
+
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
     private final LruCache<String, CachedResult> cache;
     private int hits = 0;
     private int misses = 0;
 
+    /** Хеш последнего изображения, пока не изменилось его содержимое */
+    private WeakReference<Bitmap> hashedBitmap;
+    private int hashedGeneration;
+    private long lastHash;
+
     public SegmentationCache() {
         final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
         final int cacheSize = Math.min(MAX_CACHE_SIZE_MB * 1024, maxMemory / 8);
@@ -32,23 +59,116 @@ public class SegmentationCache {
 
     /**
      * Генерирует ключ кэша для изображения.
+     * @param processingSize размер, до которого изображение уменьшается при обработке
      */
-    public String generateKey(Bitmap bitmap, String mode, int sensitivity) {
-        return String.format("%dx%d_%s_%d_%d", 
+    public String generateKey(Bitmap bitmap, String mode, int processingSize) {
+        return String.format("%dx%d_%s_%d_%016x", 
             bitmap.getWidth(), 
             bitmap.getHeight(),
             mode,
-            sensitivity,
-            bitmap.hashCode()
+            processingSize,
+            contentHash(bitmap)
         );
     }
 
+    /**
+     * Хеш содержимого bitmap по выборке строк и столбцов. Повторный вызов для того же
+     * bitmap с неизменным содержимым (getGenerationId) не читает пиксели.
+     */
+    public synchronized long contentHash(Bitmap bitmap) {
+        Bitmap hashed = hashedBitmap != null ? hashedBitmap.get() : null;
+        if (hashed == bitmap && hashedGeneration == bitmap.getGenerationId()) {
+            return lastHash;
+        }
+
+        long startTime = System.currentTimeMillis();
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int rows = Math.min(SAMPLE_ROWS, height);
+        int columns = Math.min(SAMPLE_COLUMNS, width);
+        int[] row = new int[width];
+        int[] column = new int[height];
+
+        Accumulator acc = new Accumulator();
+        for (int i = 0; i < rows; i++) {
+            int y = (int) ((long) i * height / rows);
+            bitmap.getPixels(row, 0, width, 0, y, width, 1);
+            acc.add(row, width);
+        }
+        for (int i = 0; i < columns; i++) {
+            int x = (int) ((long) i * width / columns);
+            bitmap.getPixels(column, 0, 1, x, 0, 1, height);
+            acc.add(column, height);
+        }
+
+        long hash = acc.digest();
+        hash += PRIME5 + (long) width * height;
+        hash ^= hash >>> 33;
+        hash *= PRIME2;
+        hash ^= hash >>> 29;
+        hash *= PRIME3;
+        hash ^= hash >>> 32;
+
+        hashedBitmap = new WeakReference<>(bitmap);
+        hashedGeneration = bitmap.getGenerationId();
+        lastHash = hash;
+        Log.d(TAG, "Content hash in " + (System.currentTimeMillis() - startTime) + "ms");
+        return hash;
+    }
+
+    private static long round(long acc, long input) {
+        acc += input * PRIME2;
+        acc = Long.rotateLeft(acc, 31);
+        return acc * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        acc ^= round(0, value);
+        return acc * PRIME1 + PRIME4;
+    }
+
+    /**
+     * Четыре независимые полосы по 64 бита, как в xxHash64; пара пикселей — одно слово
+     */
+    private static class Accumulator {
+        long v1 = PRIME1 + PRIME2;
+        long v2 = PRIME2;
+        long v3 = 0;
+        long v4 = -PRIME1;
+        int lane = 0;
+
+        void add(int[] pixels, int count) {
+            for (int i = 0; i + 1 < count; i += 2) {
+                long word = ((long) pixels[i] << 32) | (pixels[i + 1] & 0xFFFFFFFFL);
+                switch (lane) {
+                    case 0: v1 = round(v1, word); break;
+                    case 1: v2 = round(v2, word); break;
+                    case 2: v3 = round(v3, word); break;
+                    default: v4 = round(v4, word); break;
+                }
+                lane = (lane + 1) & 3;
+            }
+            if ((count & 1) != 0) {
+                v1 = round(v1, pixels[count - 1]);
+            }
+        }
+
+        long digest() {
+            long hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+            hash = mergeRound(hash, v1);
+            hash = mergeRound(hash, v2);
+            hash = mergeRound(hash, v3);
+            return mergeRound(hash, v4);
+        }
+    }
+
     /**
      * Получает результат из кэша.
      */
     public <T> T get(String key) {
         CachedResult result = cache.get(key);
-        if (result != null && !result.isExpired()) {
+        if (result != null) {
             hits++;
             logStats();
             return (T) result.data;
@@ -84,17 +204,10 @@ public class SegmentationCache {
     private static class CachedResult {
         final Object data;
         final int sizeKb;
-        final long timestamp;
-        static final long VALIDITY_MS = 60000;
 
         CachedResult(Object data, int sizeKb) {
             this.data = data;
             this.sizeKb = sizeKb;
-            this.timestamp = System.currentTimeMillis();
-        }
-
-        boolean isExpired() {
-            return System.currentTimeMillis() - timestamp > VALIDITY_MS;
         }
     }
 }
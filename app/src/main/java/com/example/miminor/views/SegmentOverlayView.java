@@ -6,7 +6,6 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
-import android.graphics.Point;
 import android.graphics.Rect;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -15,16 +14,21 @@ import android.view.View;
 import android.view.animation.DecelerateInterpolator;
 
 import com.example.miminor.segmentation.ImageSegment;
+import com.example.miminor.segmentation.PackedContour;
 import com.example.miminor.segmentation.SegmentationResult;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Custom View для отображения интерактивной разметки сегментов поверх изображения
  */
 public class SegmentOverlayView extends View {
     private static final String TAG = "SegmentOverlayView";
+    /** Допуск упрощения контуров в пикселях экрана: отклонение меньше пикселя не видно */
+    private static final float CONTOUR_TOLERANCE_PX = 0.5f;
 
     private SegmentationResult segmentationResult;
     private ImageSegment selectedSegment;
@@ -39,6 +43,9 @@ public class SegmentOverlayView extends View {
     private float imageOffsetX = 0;
     private float imageOffsetY = 0;
 
+    /** Пути контуров в координатах экрана; сбрасываются при смене преобразования */
+    private final Map<ImageSegment, Path> contourPaths = new HashMap<>();
+
     private ValueAnimator pulseAnimator;
     private float pulseAlpha = 0.3f;
 
@@ -104,10 +111,14 @@ public class SegmentOverlayView extends View {
         this.segmentationResult = result;
         this.selectedSegment = null;
         this.highlightedSegments.clear();
+        contourPaths.clear();
         invalidate();
     }
     
     public void addSegment(ImageSegment segment) {
+        for (ImageSegment previous : highlightedSegments) {
+            contourPaths.remove(previous);
+        }
         this.highlightedSegments.clear();
         this.highlightedSegments.add(segment);
         this.selectedSegment = segment;
@@ -121,6 +132,7 @@ public class SegmentOverlayView extends View {
         this.highlightedSegments.clear();
         this.selectedSegment = null;
         this.segmentationResult = null;
+        contourPaths.clear();
         if (pulseAnimator.isRunning()) {
             pulseAnimator.cancel();
         }
@@ -132,6 +144,7 @@ public class SegmentOverlayView extends View {
         this.imageScaleY = scaleY;
         this.imageOffsetX = offsetX;
         this.imageOffsetY = offsetY;
+        contourPaths.clear();
         Log.d(TAG, String.format("Overlay transform set: scale=(%.3f, %.3f), offset=(%.1f, %.1f)", 
                                 scaleX, scaleY, offsetX, offsetY));
         invalidate();
@@ -183,7 +196,7 @@ public class SegmentOverlayView extends View {
     }
 
     private void drawSegment(Canvas canvas, ImageSegment segment, boolean highlighted) {
-        List<Point> contour = segment.getContour();
+        PackedContour contour = segment.getContour();
         Rect bounds = segment.getBounds();
         int color = segment.getDominantColor().getColor();
         
@@ -200,7 +213,7 @@ public class SegmentOverlayView extends View {
             return;
         }
 
-        Path path = createContourPath(contour, bounds);
+        Path path = contourPath(segment);
 
         int alpha = 25;
         overlayPaint.setColor(color);
@@ -223,7 +236,7 @@ public class SegmentOverlayView extends View {
     }
 
     private void drawSelectedSegment(Canvas canvas, ImageSegment segment) {
-        List<Point> contour = segment.getContour();
+        PackedContour contour = segment.getContour();
         Rect bounds = segment.getBounds();
         int color = segment.getDominantColor().getColor();
 
@@ -233,7 +246,7 @@ public class SegmentOverlayView extends View {
             Rect scaledBounds = scaleRect(bounds);
             path.addRect(scaledBounds.left, scaledBounds.top, scaledBounds.right, scaledBounds.bottom, Path.Direction.CW);
         } else {
-            path = createContourPath(contour, bounds);
+            path = contourPath(segment);
         }
 
         overlayPaint.setColor(color);
@@ -251,24 +264,36 @@ public class SegmentOverlayView extends View {
         canvas.drawPath(path, selectedPaint);
     }
 
-    private Path createContourPath(List<Point> contour, Rect bounds) {
+    private Path contourPath(ImageSegment segment) {
+        Path path = contourPaths.get(segment);
+        if (path == null) {
+            path = createContourPath(segment.getContour());
+            contourPaths.put(segment, path);
+        }
+        return path;
+    }
+
+    /**
+     * Путь контура на экране. Контур упрощается с допуском в полпикселя экрана, поэтому
+     * число вершин определяется масштабом отображения, а не разрешением изображения
+     */
+    private Path createContourPath(PackedContour contour) {
         Path path = new Path();
 
         if (contour.isEmpty()) {
             return path;
         }
 
-        Point first = contour.get(0);
-        float startX = first.x * imageScaleX + imageOffsetX;
-        float startY = first.y * imageScaleY + imageOffsetY;
-
-        path.moveTo(startX, startY);
+        float scale = Math.max(imageScaleX, imageScaleY);
+        PackedContour simplified = scale > 0 ? contour.simplify(CONTOUR_TOLERANCE_PX / scale) : contour;
+        int count = simplified.size();
+        path.incReserve(count);
 
-        for (int i = 1; i < contour.size(); i++) {
-            Point p = contour.get(i);
-            float x = p.x * imageScaleX + imageOffsetX;
-            float y = p.y * imageScaleY + imageOffsetY;
-            path.lineTo(x, y);
+        path.moveTo(simplified.getX(0) * imageScaleX + imageOffsetX,
+                simplified.getY(0) * imageScaleY + imageOffsetY);
+        for (int i = 1; i < count; i++) {
+            path.lineTo(simplified.getX(i) * imageScaleX + imageOffsetX,
+                    simplified.getY(i) * imageScaleY + imageOffsetY);
         }
 
         path.close();
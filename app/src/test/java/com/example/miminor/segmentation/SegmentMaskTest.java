@@ -0,0 +1,252 @@
+package com.example.miminor.segmentation;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * SegmentMask against a plain boolean[] reference, with widths around the 64-bit word
+ * boundary and masks placed left of, right of and across each other.
+ */
+public class SegmentMaskTest {
+    private static final int[] WIDTHS = {1, 63, 64, 65, 127, 128, 130};
+    private static final float[][] CELLS = {{1f, 1f}, {2f, 3f}, {1.5f, 1.5f}};
+
+    @Test
+    public void containsMatchesReference() {
+        Random random = new Random(1);
+        for (int width : WIDTHS) {
+            for (float[] cell : CELLS) {
+                Reference reference = Reference.random(random, -7, 5, width, 6);
+                SegmentMask mask = reference.toMask(cell[0], cell[1]);
+                String name = "width " + width + ", cell " + cell[0] + "x" + cell[1];
+
+                int x0 = (int) Math.floor((reference.left - 2) * cell[0]);
+                int x1 = (int) Math.ceil((reference.left + width + 2) * cell[0]);
+                int y0 = (int) Math.floor((reference.top - 2) * cell[1]);
+                int y1 = (int) Math.ceil((reference.top + reference.height + 2) * cell[1]);
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        boolean expected = reference.get((int) Math.floor(x / cell[0]), (int) Math.floor(y / cell[1]));
+                        assertEquals(name + " at " + x + "," + y, expected, mask.contains(x, y));
+                    }
+                }
+                assertEquals(name, reference.count(), mask.getCellCount());
+            }
+        }
+    }
+
+    @Test
+    public void centroidMatchesReference() {
+        Random random = new Random(2);
+        for (int width : WIDTHS) {
+            Reference reference = Reference.random(random, 3, -4, width, 5);
+            SegmentMask mask = reference.toMask(2f, 3f);
+
+            double sumX = 0;
+            double sumY = 0;
+            for (int y = 0; y < reference.height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (reference.cells[y * width + x]) {
+                        sumX += reference.left + x + 0.5;
+                        sumY += reference.top + y + 0.5;
+                    }
+                }
+            }
+            int count = reference.count();
+            assertEquals("width " + width, sumX / count * 2, mask.getCentroidX(), 1e-3);
+            assertEquals("width " + width, sumY / count * 3, mask.getCentroidY(), 1e-3);
+        }
+    }
+
+    @Test
+    public void coverageMatchesReference() {
+        Random random = new Random(3);
+        for (int width : WIDTHS) {
+            for (float[] cell : CELLS) {
+                Reference reference = Reference.random(random, 4, 2, width, 7);
+                SegmentMask mask = reference.toMask(cell[0], cell[1]);
+                int spanX = (int) ((width + 8) * cell[0]);
+                int spanY = (int) ((reference.height + 8) * cell[1]);
+
+                for (int i = 0; i < 500; i++) {
+                    int left = random.nextInt(spanX);
+                    int top = random.nextInt(spanY);
+                    int right = left + 1 + random.nextInt(spanX - left);
+                    int bottom = top + 1 + random.nextInt(spanY - top);
+
+                    int cx0 = (int) Math.floor(left / cell[0]);
+                    int cx1 = (int) Math.floor((right - 1) / cell[0]);
+                    int cy0 = (int) Math.floor(top / cell[1]);
+                    int cy1 = (int) Math.floor((bottom - 1) / cell[1]);
+                    int set = 0;
+                    for (int cy = cy0; cy <= cy1; cy++) {
+                        for (int cx = cx0; cx <= cx1; cx++) {
+                            if (reference.get(cx, cy)) {
+                                set++;
+                            }
+                        }
+                    }
+                    int total = (cx1 - cx0 + 1) * (cy1 - cy0 + 1);
+                    int expected = set == 0 ? SegmentMask.COVER_NONE
+                        : set == total ? SegmentMask.COVER_FULL : SegmentMask.COVER_PARTIAL;
+                    assertEquals("width " + width + " [" + left + "," + top + "," + right + "," + bottom + ")",
+                        expected, mask.coverage(left, top, right, bottom));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void fullMaskCoversItsBounds() {
+        for (int width : WIDTHS) {
+            Reference reference = new Reference(10, 20, width, 3);
+            java.util.Arrays.fill(reference.cells, true);
+            SegmentMask mask = reference.toMask(1f, 1f);
+            assertEquals("width " + width, SegmentMask.COVER_FULL, mask.coverage(10, 20, 10 + width, 23));
+            assertEquals("width " + width, SegmentMask.COVER_PARTIAL, mask.coverage(9, 20, 10 + width, 23));
+            assertEquals("width " + width, SegmentMask.COVER_PARTIAL, mask.coverage(10, 20, 11 + width, 23));
+            assertEquals("width " + width, SegmentMask.COVER_NONE, mask.coverage(10 + width, 20, 20 + width, 23));
+        }
+    }
+
+    @Test
+    public void unionAndIntersectionMatchReference() {
+        Random random = new Random(4);
+        int[] widths = {63, 64, 65};
+        int[] offsetsX = {-130, -65, -64, -63, -1, 0, 1, 63, 64, 65, 130};
+        int[] offsetsY = {-4, 0, 2};
+        for (int width : widths) {
+            for (int otherWidth : widths) {
+                for (int dx : offsetsX) {
+                    for (int dy : offsetsY) {
+                        Reference a = Reference.random(random, 200, 50, width, 5);
+                        Reference b = Reference.random(random, 200 + dx, 50 + dy, otherWidth, 4);
+                        String name = "widths " + width + "/" + otherWidth + ", offset " + dx + "," + dy;
+                        checkCombined(name + " union", a, b, a.toMask(1f, 1f).union(b.toMask(1f, 1f)), false);
+                        checkCombined(name + " intersection", a, b, a.toMask(1f, 1f).intersection(b.toMask(1f, 1f)), true);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void combiningDifferentGridsFails() {
+        Reference reference = new Reference(0, 0, 4, 4);
+        reference.toMask(1f, 1f).union(reference.toMask(2f, 2f));
+    }
+
+    @Test
+    public void fromContourMatchesContourFill() {
+        Random random = new Random(5);
+        for (int width : WIDTHS) {
+            // Rectangle width crosses the word boundary
+            checkContour("rectangle " + width, PackedContour.fromPoints(
+                -3, 7, width - 4, 7, width - 4, 12, -3, 12));
+        }
+        for (int i = 0; i < 60; i++) {
+            // Star-shaped polygons up to 70 cells in radius, so rows span one to three words
+            int vertices = 3 + random.nextInt(12);
+            int radius = 2 + random.nextInt(70);
+            int centerX = random.nextInt(100) - 50;
+            int centerY = random.nextInt(100) - 50;
+            int[] xy = new int[2 * vertices];
+            for (int v = 0; v < vertices; v++) {
+                double angle = 2 * Math.PI * v / vertices;
+                double r = radius * (0.3 + 0.7 * random.nextDouble());
+                xy[2 * v] = centerX + (int) Math.round(r * Math.cos(angle));
+                xy[2 * v + 1] = centerY + (int) Math.round(r * Math.sin(angle));
+            }
+            checkContour("polygon " + i, PackedContour.fromPoints(xy));
+        }
+    }
+
+    private static void checkContour(String name, PackedContour contour) {
+        SegmentMask mask = SegmentMask.fromContour(contour, 1f, 1f);
+        int count = 0;
+        for (int y = contour.minY - 1; y <= contour.maxY + 1; y++) {
+            for (int x = contour.minX - 1; x <= contour.maxX + 1; x++) {
+                boolean expected = contour.contains(x, y);
+                assertEquals(name + " at " + x + "," + y, expected, mask.contains(x, y));
+                if (expected) {
+                    count++;
+                }
+            }
+        }
+        assertEquals(name, count, mask.getCellCount());
+    }
+
+    private static void checkCombined(String name, Reference a, Reference b, SegmentMask result, boolean and) {
+        int x0 = Math.min(a.left, b.left) - 2;
+        int x1 = Math.max(a.left + a.width, b.left + b.width) + 2;
+        int y0 = Math.min(a.top, b.top) - 2;
+        int y1 = Math.max(a.top + a.height, b.top + b.height) + 2;
+        int count = 0;
+        for (int y = y0; y < y1; y++) {
+            for (int x = x0; x < x1; x++) {
+                boolean expected = and ? a.get(x, y) && b.get(x, y) : a.get(x, y) || b.get(x, y);
+                assertEquals(name + " at " + x + "," + y, expected, result.contains(x, y));
+                if (expected) {
+                    count++;
+                }
+            }
+        }
+        // Stray bits past the right edge of the bounds would show up in the cell count
+        assertEquals(name, count, result.getCellCount());
+    }
+
+    /** Mask cells inside the bounds, row-major */
+    private static final class Reference {
+        final int left;
+        final int top;
+        final int width;
+        final int height;
+        final boolean[] cells;
+
+        Reference(int left, int top, int width, int height) {
+            this.left = left;
+            this.top = top;
+            this.width = width;
+            this.height = height;
+            this.cells = new boolean[width * height];
+        }
+
+        static Reference random(Random random, int left, int top, int width, int height) {
+            Reference reference = new Reference(left, top, width, height);
+            for (int i = 0; i < reference.cells.length; i++) {
+                reference.cells[i] = random.nextInt(3) != 0;
+            }
+            // Set the first and last cell so edge words are never empty
+            reference.cells[0] = true;
+            reference.cells[reference.cells.length - 1] = true;
+            return reference;
+        }
+
+        boolean get(int x, int y) {
+            int rx = x - left;
+            int ry = y - top;
+            return rx >= 0 && ry >= 0 && rx < width && ry < height && cells[ry * width + rx];
+        }
+
+        int count() {
+            int count = 0;
+            for (boolean cell : cells) {
+                if (cell) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        SegmentMask toMask(float cellWidth, float cellHeight) {
+            byte[] bytes = new byte[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                bytes[i] = (byte) (cells[i] ? 1 : 0);
+            }
+            return SegmentMask.fromBytes(new org.opencv.core.Rect(left, top, width, height), bytes, cellWidth, cellHeight);
+        }
+    }
+}
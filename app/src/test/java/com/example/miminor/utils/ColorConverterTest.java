@@ -0,0 +1,188 @@
+package com.example.miminor.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * CIEDE2000 against the test data of Sharma, Wu and Dalal (2005) and against a
+ * textbook double-precision evaluation of the formula.
+ */
+public class ColorConverterTest {
+    /** The published ΔE00 values are rounded to 4 decimals */
+    private static final float TOLERANCE = 1e-4f;
+
+    /**
+     * Pair 31 is published as 1.4441, but the formula evaluated in double with sin-based
+     * ΔH' (see {@link #referenceDeltaE2000}) gives 1.4410. The kernel is checked against
+     * that evaluation for this pair.
+     */
+    private static final int UNREPRODUCIBLE_PAIR = 30;
+
+    /** Bound of the batch kernel relative to ΔE00, from the hue-table interpolation */
+    private static final double RELATIVE_TOLERANCE = 1e-5;
+
+    /** L1, a1, b1, L2, a2, b2, ΔE00 */
+    private static final double[][] SHARMA = {
+        {50.0000, 2.6772, -79.7751, 50.0000, 0.0000, -82.7485, 2.0425},
+        {50.0000, 3.1571, -77.2803, 50.0000, 0.0000, -82.7485, 2.8615},
+        {50.0000, 2.8361, -74.0200, 50.0000, 0.0000, -82.7485, 3.4412},
+        {50.0000, -1.3802, -84.2814, 50.0000, 0.0000, -82.7485, 1.0000},
+        {50.0000, -1.1848, -84.8006, 50.0000, 0.0000, -82.7485, 1.0000},
+        {50.0000, -0.9009, -85.5211, 50.0000, 0.0000, -82.7485, 1.0000},
+        {50.0000, 0.0000, 0.0000, 50.0000, -1.0000, 2.0000, 2.3669},
+        {50.0000, -1.0000, 2.0000, 50.0000, 0.0000, 0.0000, 2.3669},
+        {50.0000, 2.4900, -0.0010, 50.0000, -2.4900, 0.0009, 7.1792},
+        {50.0000, 2.4900, -0.0010, 50.0000, -2.4900, 0.0010, 7.1792},
+        {50.0000, 2.4900, -0.0010, 50.0000, -2.4900, 0.0011, 7.2195},
+        {50.0000, 2.4900, -0.0010, 50.0000, -2.4900, 0.0012, 7.2195},
+        {50.0000, -0.0010, 2.4900, 50.0000, 0.0009, -2.4900, 4.8045},
+        {50.0000, -0.0010, 2.4900, 50.0000, 0.0010, -2.4900, 4.8045},
+        {50.0000, -0.0010, 2.4900, 50.0000, 0.0011, -2.4900, 4.7461},
+        {50.0000, 2.5000, 0.0000, 50.0000, 0.0000, -2.5000, 4.3065},
+        {50.0000, 2.5000, 0.0000, 73.0000, 25.0000, -18.0000, 27.1492},
+        {50.0000, 2.5000, 0.0000, 61.0000, -5.0000, 29.0000, 22.8977},
+        {50.0000, 2.5000, 0.0000, 56.0000, -27.0000, -3.0000, 31.9030},
+        {50.0000, 2.5000, 0.0000, 58.0000, 24.0000, 15.0000, 19.4535},
+        {50.0000, 2.5000, 0.0000, 50.0000, 3.1736, 0.5854, 1.0000},
+        {50.0000, 2.5000, 0.0000, 50.0000, 3.2972, 0.0000, 1.0000},
+        {50.0000, 2.5000, 0.0000, 50.0000, 1.8634, 0.5757, 1.0000},
+        {50.0000, 2.5000, 0.0000, 50.0000, 3.2592, 0.3350, 1.0000},
+        {60.2574, -34.0099, 36.2677, 60.4626, -34.1751, 39.4387, 1.2644},
+        {63.0109, -31.0961, -5.8663, 62.8187, -29.7946, -4.0864, 1.2630},
+        {61.2901, 3.7196, -5.3901, 61.4292, 2.2480, -4.9620, 1.8731},
+        {35.0831, -44.1164, 3.7933, 35.0232, -40.0716, 1.5901, 1.8645},
+        {22.7233, 20.0904, -46.6940, 23.0331, 14.9730, -42.5619, 2.0373},
+        {36.4612, 47.8580, 18.3852, 36.2715, 50.5065, 21.2231, 1.4146},
+        {90.8027, -2.0831, 1.4410, 91.1175, -1.6435, 0.0447, 1.4441},
+        {90.9257, -0.5406, -0.9208, 88.6381, -0.8985, -0.7239, 1.5381},
+        {6.7747, -0.2908, -2.4247, 5.8714, -0.0985, -2.2286, 0.6377},
+        {2.0776, 0.0795, -1.1350, 0.9033, -0.0636, -0.5514, 0.9082},
+    };
+
+    @Test
+    public void pairDistanceMatchesSharmaData() {
+        for (int i = 0; i < SHARMA.length; i++) {
+            double[] row = SHARMA[i];
+            LabColor c1 = new LabColor((float) row[0], (float) row[1], (float) row[2]);
+            LabColor c2 = new LabColor((float) row[3], (float) row[4], (float) row[5]);
+            double expected = expected(i);
+            assertEquals("pair " + (i + 1), expected, ColorConverter.ciede2000Distance(c1, c2), TOLERANCE);
+            assertEquals("pair " + (i + 1) + " swapped", expected, ColorConverter.ciede2000Distance(c2, c1), TOLERANCE);
+        }
+    }
+
+    @Test
+    public void unreproduciblePairMatchesFormula() {
+        double[] row = SHARMA[UNREPRODUCIBLE_PAIR];
+        assertEquals(1.4410, referenceDeltaE2000(row[0], row[1], row[2], row[3], row[4], row[5]), TOLERANCE);
+    }
+
+    @Test
+    public void batchMatchesSharmaData() {
+        int n = SHARMA.length;
+        float[] L = new float[n];
+        float[] a = new float[n];
+        float[] b = new float[n];
+        float[] out = new float[n];
+        for (int i = 0; i < n; i++) {
+            L[i] = (float) SHARMA[i][3];
+            a[i] = (float) SHARMA[i][4];
+            b[i] = (float) SHARMA[i][5];
+        }
+        for (int i = 0; i < n; i++) {
+            LabColor reference = new LabColor((float) SHARMA[i][0], (float) SHARMA[i][1], (float) SHARMA[i][2]);
+            ColorConverter.deltaE2000(reference, L, a, b, i, 1, out);
+            assertEquals("pair " + (i + 1), expected(i), out[i], TOLERANCE);
+        }
+    }
+
+    @Test
+    public void batchMatchesReferenceOnRandomColors() {
+        Random random = new Random(42);
+        int n = 4096;
+        float[] L = new float[n];
+        float[] a = new float[n];
+        float[] b = new float[n];
+        float[] out = new float[n];
+        for (int round = 0; round < 64; round++) {
+            LabColor reference = new LabColor(random.nextFloat() * 100,
+                random.nextFloat() * 256 - 128, random.nextFloat() * 256 - 128);
+            for (int i = 0; i < n; i++) {
+                L[i] = random.nextFloat() * 100;
+                a[i] = random.nextFloat() * 256 - 128;
+                b[i] = random.nextFloat() * 256 - 128;
+            }
+            ColorConverter.deltaE2000(reference, L, a, b, out);
+            for (int i = 0; i < n; i++) {
+                double expected = referenceDeltaE2000(reference.L, reference.a, reference.b, L[i], a[i], b[i]);
+                assertEquals(reference + " vs " + new LabColor(L[i], a[i], b[i]), expected, out[i],
+                    Math.max(TOLERANCE, expected * RELATIVE_TOLERANCE));
+            }
+        }
+    }
+
+    private static double expected(int pair) {
+        if (pair == UNREPRODUCIBLE_PAIR) {
+            double[] row = SHARMA[pair];
+            return referenceDeltaE2000(row[0], row[1], row[2], row[3], row[4], row[5]);
+        }
+        return SHARMA[pair][6];
+    }
+
+    /**
+     * CIEDE2000 as written in the paper: double precision, exact trigonometry,
+     * ΔH' = 2·sqrt(C1'C2')·sin(Δh'/2)
+     */
+    private static double referenceDeltaE2000(double L1, double a1, double b1,
+                                              double L2, double a2, double b2) {
+        double Cbar = (Math.hypot(a1, b1) + Math.hypot(a2, b2)) / 2;
+        double Cbar7 = Math.pow(Cbar, 7);
+        double G = 0.5 * (1 - Math.sqrt(Cbar7 / (Cbar7 + Math.pow(25, 7))));
+        double a1p = a1 * (1 + G);
+        double a2p = a2 * (1 + G);
+        double C1p = Math.hypot(a1p, b1);
+        double C2p = Math.hypot(a2p, b2);
+        double h1p = hue(a1p, b1);
+        double h2p = hue(a2p, b2);
+
+        double dhp = 0;
+        double hpbar = h1p + h2p;
+        if (C1p * C2p != 0) {
+            dhp = h2p - h1p;
+            if (dhp > 180) dhp -= 360;
+            else if (dhp < -180) dhp += 360;
+            hpbar = Math.abs(h1p - h2p) <= 180 ? hpbar / 2
+                : hpbar < 360 ? (hpbar + 360) / 2 : (hpbar - 360) / 2;
+        }
+        double dHp = 2 * Math.sqrt(C1p * C2p) * Math.sin(Math.toRadians(dhp / 2));
+
+        double T = 1 - 0.17 * Math.cos(Math.toRadians(hpbar - 30))
+            + 0.24 * Math.cos(Math.toRadians(2 * hpbar))
+            + 0.32 * Math.cos(Math.toRadians(3 * hpbar + 6))
+            - 0.20 * Math.cos(Math.toRadians(4 * hpbar - 63));
+        double Lbar50 = (L1 + L2) / 2 - 50;
+        double Cpbar = (C1p + C2p) / 2;
+        double Cpbar7 = Math.pow(Cpbar, 7);
+        double SL = 1 + 0.015 * Lbar50 * Lbar50 / Math.sqrt(20 + Lbar50 * Lbar50);
+        double SC = 1 + 0.045 * Cpbar;
+        double SH = 1 + 0.015 * Cpbar * T;
+        double RT = -2 * Math.sqrt(Cpbar7 / (Cpbar7 + Math.pow(25, 7)))
+            * Math.sin(Math.toRadians(60 * Math.exp(-Math.pow((hpbar - 275) / 25, 2))));
+
+        double dL = (L2 - L1) / SL;
+        double dC = (C2p - C1p) / SC;
+        double dH = dHp / SH;
+        return Math.sqrt(dL * dL + dC * dC + dH * dH + RT * dC * dH);
+    }
+
+    private static double hue(double a, double b) {
+        if (a == 0 && b == 0) {
+            return 0;
+        }
+        double h = Math.toDegrees(Math.atan2(b, a));
+        return h < 0 ? h + 360 : h;
+    }
+}
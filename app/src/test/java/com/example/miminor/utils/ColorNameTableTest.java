@@ -0,0 +1,64 @@
+package com.example.miminor.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Sweeps all 2^24 colors and compares the quantized table against the exact naming path.
+ */
+public class ColorNameTableTest {
+    /** Measured with the built-in palette: 909050 colors (5.42%) */
+    private static final double MAX_MISMATCH_RATE = 0.055;
+
+    @Test
+    public void tableMatchesExactPathWithinBound() {
+        ColorNameTable table = ColorNameTable.build(ColorNameMapper.getDefaultPalette());
+
+        long mismatches = 0;
+        for (int color = 0; color < 1 << 24; color++) {
+            String name = table.lookup(color);
+            if (name.equals(ColorNameMapper.getExactColorName(color))) {
+                continue;
+            }
+            mismatches++;
+
+            // A mismatch must still be the exact name of a color at most 2 levels away per channel
+            int center = cellCenter(color);
+            assertTrue(String.format("#%06X is more than 2 levels from its cell center", color),
+                maxChannelDistance(color, center) <= 2);
+            assertEquals(String.format("#%06X", color), ColorNameMapper.getExactColorName(center), name);
+        }
+
+        double rate = (double) mismatches / (1 << 24);
+        assertTrue(String.format("Mismatch rate %.4f%% exceeds the documented bound", rate * 100),
+            rate <= MAX_MISMATCH_RATE);
+    }
+
+    @Test
+    public void cellCentersMatchExactPath() {
+        ColorNameTable table = ColorNameTable.build(ColorNameMapper.getDefaultPalette());
+        for (int r = 2; r < 256; r += 4) {
+            for (int g = 2; g < 256; g += 4) {
+                for (int b = 2; b < 256; b += 4) {
+                    int color = 0xFF000000 | (r << 16) | (g << 8) | b;
+                    assertEquals(ColorNameMapper.getExactColorName(color), table.lookup(color));
+                }
+            }
+        }
+    }
+
+    private static int cellCenter(int color) {
+        return (color & 0xFCFCFC) | 0x020202;
+    }
+
+    private static int maxChannelDistance(int c1, int c2) {
+        int max = 0;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int d = Math.abs(((c1 >> shift) & 0xFF) - ((c2 >> shift) & 0xFF));
+            max = Math.max(max, d);
+        }
+        return max;
+    }
+}
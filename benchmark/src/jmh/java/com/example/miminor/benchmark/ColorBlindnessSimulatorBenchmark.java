@@ -0,0 +1,62 @@
+package com.example.miminor.benchmark;
+
+import android.graphics.Bitmap;
+
+import com.example.miminor.utils.ColorBlindnessSimulator;
+import com.example.miminor.utils.ColorBlindnessSimulator.ColorBlindnessType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Color-vision simulation: per-color transform and whole 640×480 frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorBlindnessSimulatorBenchmark {
+    @Param({"PROTANOPIA", "DEUTERANOMALY", "ACHROMATOPSIA"})
+    public ColorBlindnessType type;
+
+    private int[] colors;
+    private Bitmap source;
+    private Bitmap output;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        colors = Samples.colors(Samples.COLOR_COUNT);
+        int[] frame = Samples.photoLikeFrame(Samples.FRAME_WIDTH, Samples.FRAME_HEIGHT);
+        source = Bitmap.createBitmap(Samples.FRAME_WIDTH, Samples.FRAME_HEIGHT, Bitmap.Config.ARGB_8888);
+        source.setPixels(frame, 0, Samples.FRAME_WIDTH, 0, 0, Samples.FRAME_WIDTH, Samples.FRAME_HEIGHT);
+        output = Bitmap.createBitmap(Samples.FRAME_WIDTH, Samples.FRAME_HEIGHT, Bitmap.Config.ARGB_8888);
+        // Build the LUT outside the measurement
+        ColorBlindnessSimulator.getSimulationLut(type, 1f);
+    }
+
+    @Benchmark
+    public int transformColor() {
+        next = (next + 1) & (Samples.COLOR_COUNT - 1);
+        return ColorBlindnessSimulator.transformColor(colors[next], type);
+    }
+
+    /** One op = one frame through the fixed-point matrix path. */
+    @Benchmark
+    public Bitmap filterFrame() {
+        return ColorBlindnessSimulator.applyColorBlindnessFilter(source, type, output);
+    }
+
+    /** One op = one frame through the cached 3D LUT. */
+    @Benchmark
+    public Bitmap simulateFrame() {
+        return ColorBlindnessSimulator.simulate(source, type, 1f, output);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.miminor.benchmark;
+
+import com.example.miminor.utils.ColorConverter;
+import com.example.miminor.utils.LabColor;
+import com.example.miminor.utils.OklabColor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OKLAB conversion and CIEDE2000: single colors and whole 640×480 frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorConverterBenchmark {
+    private int[] colors;
+    private OklabColor[] oklab;
+    private LabColor[] lab;
+    private int[] frame;
+    private float[] L;
+    private float[] a;
+    private float[] b;
+    private float[] distances;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        colors = Samples.colors(Samples.COLOR_COUNT);
+        oklab = new OklabColor[colors.length];
+        lab = new LabColor[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            int c = colors[i];
+            oklab[i] = ColorConverter.rgbToOklab((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+            lab[i] = ColorConverter.rgbToLab((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+        }
+
+        frame = Samples.photoLikeFrame(Samples.FRAME_WIDTH, Samples.FRAME_HEIGHT);
+        L = new float[frame.length];
+        a = new float[frame.length];
+        b = new float[frame.length];
+        distances = new float[frame.length];
+        ColorConverter.rgbToLab(frame, 0, frame.length, L, a, b, 0);
+    }
+
+    private int nextIndex() {
+        next = (next + 1) & (Samples.COLOR_COUNT - 1);
+        return next;
+    }
+
+    @Benchmark
+    public OklabColor rgbToOklab() {
+        int c = colors[nextIndex()];
+        return ColorConverter.rgbToOklab((c >> 16) & 0xFF, (c >> 8) & 0xFF, c & 0xFF);
+    }
+
+    /** One op = one 640×480 frame. */
+    @Benchmark
+    public void rgbToOklabFrame(Blackhole blackhole) {
+        ColorConverter.rgbToOklab(frame, 0, frame.length, L, a, b, 0);
+        blackhole.consume(L);
+    }
+
+    @Benchmark
+    public float ciede2000Oklab() {
+        int i = nextIndex();
+        return ColorConverter.ciede2000Distance(oklab[i], oklab[(i + 1) & (Samples.COLOR_COUNT - 1)]);
+    }
+
+    @Benchmark
+    public float ciede2000Lab() {
+        int i = nextIndex();
+        return ColorConverter.ciede2000Distance(lab[i], lab[(i + 1) & (Samples.COLOR_COUNT - 1)]);
+    }
+
+    /** One op = ΔE00 from one reference to every pixel of a 640×480 frame. */
+    @Benchmark
+    public void deltaE2000Frame(Blackhole blackhole) {
+        ColorConverter.deltaE2000(lab[nextIndex()], L, a, b, distances);
+        blackhole.consume(distances);
+    }
+}
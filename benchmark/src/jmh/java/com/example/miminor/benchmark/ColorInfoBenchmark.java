@@ -0,0 +1,59 @@
+package com.example.miminor.benchmark;
+
+import com.example.miminor.utils.ColorInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ColorInfo creation as done per segment: shared instances versus fresh ones.
+ * Colors repeat within a small set, as dominant colors do across streaming frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorInfoBenchmark {
+    private static final int SEGMENT_COLORS = 64;
+
+    private int[] colors;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        colors = Samples.colors(SEGMENT_COLORS);
+    }
+
+    private int nextColor() {
+        next = (next + 1) & (SEGMENT_COLORS - 1);
+        return colors[next];
+    }
+
+    @Benchmark
+    public ColorInfo of() {
+        return ColorInfo.of(nextColor());
+    }
+
+    @Benchmark
+    public void ofWithFields(Blackhole blackhole) {
+        ColorInfo info = ColorInfo.of(nextColor());
+        blackhole.consume(info.getColorName());
+        blackhole.consume(info.getHexCode());
+        blackhole.consume(info.getContrast());
+    }
+
+    @Benchmark
+    public void newWithFields(Blackhole blackhole) {
+        ColorInfo info = new ColorInfo(nextColor(), null);
+        blackhole.consume(info.getColorName());
+        blackhole.consume(info.getHexCode());
+        blackhole.consume(info.getContrast());
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.miminor.benchmark;
+
+import com.example.miminor.utils.ColorNameMapper;
+import com.example.miminor.utils.ColorNameTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Color naming: precomputed table lookup versus the exact k-d tree path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ColorNameMapperBenchmark {
+    private int[] colors;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        colors = Samples.colors(Samples.COLOR_COUNT);
+        ColorNameMapper.setNameTable(ColorNameTable.build(ColorNameMapper.getPalette()));
+    }
+
+    private int nextColor() {
+        next = (next + 1) & (Samples.COLOR_COUNT - 1);
+        return colors[next];
+    }
+
+    @Benchmark
+    public String getColorName() {
+        return ColorNameMapper.getColorName(nextColor());
+    }
+
+    @Benchmark
+    public String getExactColorName() {
+        return ColorNameMapper.getExactColorName(nextColor());
+    }
+}
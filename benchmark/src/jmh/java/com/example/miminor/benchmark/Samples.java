@@ -0,0 +1,46 @@
+package com.example.miminor.benchmark;
+
+import java.util.Random;
+
+/**
+ * Deterministic benchmark inputs.
+ */
+final class Samples {
+    /** Power of two so indices can wrap with a mask. */
+    static final int COLOR_COUNT = 4096;
+    static final int FRAME_WIDTH = 640;
+    static final int FRAME_HEIGHT = 480;
+
+    private Samples() {
+    }
+
+    static int[] colors(int count) {
+        Random random = new Random(42);
+        int[] colors = new int[count];
+        for (int i = 0; i < count; i++) {
+            colors[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return colors;
+    }
+
+    /**
+     * Smooth gradients with flat patches and noise: runs of equal pixels like a photo,
+     * but not a single color.
+     */
+    static int[] photoLikeFrame(int width, int height) {
+        Random random = new Random(7);
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255) / width;
+                int g = (y * 255) / height;
+                int b = ((x / 40 + y / 40) % 2 == 0) ? 200 : 60;
+                if (random.nextInt(4) == 0) {
+                    r = Math.min(255, r + random.nextInt(8));
+                }
+                pixels[y * width + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+}
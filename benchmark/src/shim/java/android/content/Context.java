@@ -0,0 +1,16 @@
+package android.content;
+
+import android.content.res.AssetManager;
+
+import java.io.File;
+
+/**
+ * Compile-only stand-in for android.content.Context.
+ */
+public abstract class Context {
+    public abstract AssetManager getAssets();
+
+    public abstract File getCacheDir();
+
+    public abstract Context getApplicationContext();
+}
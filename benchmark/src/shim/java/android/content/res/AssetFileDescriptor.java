@@ -0,0 +1,26 @@
+package android.content.res;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Compile-only stand-in for android.content.res.AssetFileDescriptor.
+ */
+public class AssetFileDescriptor implements Closeable {
+    public FileInputStream createInputStream() throws IOException {
+        throw new IOException("No assets in the benchmark shim");
+    }
+
+    public long getStartOffset() {
+        return 0;
+    }
+
+    public long getLength() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+    }
+}
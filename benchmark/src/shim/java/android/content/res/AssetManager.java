@@ -0,0 +1,13 @@
+package android.content.res;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+
+/**
+ * Stand-in for android.content.res.AssetManager with no assets.
+ */
+public class AssetManager {
+    public AssetFileDescriptor openFd(String fileName) throws IOException {
+        throw new FileNotFoundException(fileName);
+    }
+}
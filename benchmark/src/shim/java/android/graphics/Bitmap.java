@@ -0,0 +1,65 @@
+package android.graphics;
+
+/**
+ * Pure-Java stand-in for android.graphics.Bitmap backed by an ARGB int array.
+ * Covers only the calls made by the benchmarked classes.
+ */
+public class Bitmap {
+    public enum Config {
+        ALPHA_8,
+        RGB_565,
+        ARGB_8888
+    }
+
+    private final int width;
+    private final int height;
+    private final Config config;
+    private final int[] pixels;
+
+    private Bitmap(int width, int height, Config config) {
+        this.width = width;
+        this.height = height;
+        this.config = config;
+        this.pixels = new int[width * height];
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        return new Bitmap(width, height, config);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public Config getConfig() {
+        return config;
+    }
+
+    public boolean isMutable() {
+        return true;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    public void setPixel(int x, int y, int color) {
+        pixels[y * width + x] = color;
+    }
+
+    public void getPixels(int[] out, int offset, int stride, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(pixels, (y + row) * width + x, out, offset + row * stride, w);
+        }
+    }
+
+    public void setPixels(int[] in, int offset, int stride, int x, int y, int w, int h) {
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(in, offset + row * stride, pixels, (y + row) * width + x, w);
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package android.os;
+
+/**
+ * No-op stand-in for android.os.Process.
+ */
+public final class Process {
+    public static final int THREAD_PRIORITY_BACKGROUND = 10;
+
+    private Process() {
+    }
+
+    public static void setThreadPriority(int priority) {
+    }
+}
@@ -0,0 +1,41 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Stand-in for android.util.LruCache with entry-count sizing only.
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public final synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        V previous = map.put(key, value);
+        while (map.size() > maxSize) {
+            Map.Entry<K, V> eldest = map.entrySet().iterator().next();
+            map.remove(eldest.getKey());
+        }
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public final synchronized void evictAll() {
+        map.clear();
+    }
+
+    public final synchronized int size() {
+        return map.size();
+    }
+}
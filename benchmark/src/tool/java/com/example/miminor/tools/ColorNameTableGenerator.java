@@ -0,0 +1,28 @@
+package com.example.miminor.tools;
+
+import com.example.miminor.utils.ColorNameMapper;
+import com.example.miminor.utils.ColorNameTable;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writes the color-name table of the built-in palette to the file given as the only
+ * argument. Run by {@code :benchmark:generateColorNameTable} to produce the app asset.
+ */
+public final class ColorNameTableGenerator {
+    private ColorNameTableGenerator() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            throw new IllegalArgumentException("Usage: ColorNameTableGenerator <output file>");
+        }
+        File file = new File(args[0]);
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        ColorNameTable.writeTable(file, ColorNameMapper.getDefaultPalette());
+    }
+}